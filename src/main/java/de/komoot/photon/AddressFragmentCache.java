@@ -0,0 +1,93 @@
+package de.komoot.photon;
+
+import de.komoot.photon.nominatim.model.AddressType;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Keeps the serialized address parts and context of recently converted documents by parent place.
+ *
+ * Places are imported sorted by their parent, so that consecutive documents mostly share
+ * the same address. A cached fragment is only used when the address of the document is
+ * equal to the one it was created from, because places may override single address parts
+ * with their own address tags.
+ *
+ * The cache is safe to use from multiple threads. It holds a fixed number of entries;
+ * an entry is replaced when another parent maps to the same slot. The address of a
+ * document must not be changed anymore once it has been converted.
+ */
+public class AddressFragmentCache {
+    private static final int NUM_SLOTS = 1024;
+
+    private final String[] languages;
+    private final AtomicReferenceArray<Fragment> slots = new AtomicReferenceArray<>(NUM_SLOTS);
+
+    /**
+     * @param languages Languages to include in the address names.
+     */
+    public AddressFragmentCache(String[] languages) {
+        this.languages = languages;
+    }
+
+    public String[] getLanguages() {
+        return languages;
+    }
+
+    /**
+     * Get the JSON object with address parts and context of the document.
+     */
+    String get(PhotonDoc doc) throws IOException {
+        return getFragment(doc).json;
+    }
+
+    /**
+     * Get the JSON object with address parts and context of the document in UTF-8.
+     */
+    byte[] getBytes(PhotonDoc doc) throws IOException {
+        return getFragment(doc).bytes;
+    }
+
+    private Fragment getFragment(PhotonDoc doc) throws IOException {
+        long parentPlaceId = doc.getParentPlaceId();
+        if (parentPlaceId <= 0) {
+            return new Fragment(doc, Utils.convertAddress(doc, languages));
+        }
+
+        int slot = (int) (parentPlaceId ^ (parentPlaceId >>> 32)) & (NUM_SLOTS - 1);
+        Fragment fragment = slots.get(slot);
+        if (fragment != null && fragment.matches(doc)) {
+            return fragment;
+        }
+
+        fragment = new Fragment(doc, Utils.convertAddress(doc, languages));
+        slots.lazySet(slot, fragment);
+
+        return fragment;
+    }
+
+    private static class Fragment {
+        private final long parentPlaceId;
+        private final Map<AddressType, Map<String, String>> addressParts;
+        private final Set<Map<String, String>> context;
+        private final String json;
+        private final byte[] bytes;
+
+        Fragment(PhotonDoc doc, String json) {
+            this.parentPlaceId = doc.getParentPlaceId();
+            this.addressParts = doc.getAddressParts();
+            this.context = doc.getContext();
+            this.json = json;
+            this.bytes = json.getBytes(StandardCharsets.UTF_8);
+        }
+
+        boolean matches(PhotonDoc doc) {
+            return parentPlaceId == doc.getParentPlaceId()
+                    && addressParts.equals(doc.getAddressParts())
+                    && context.equals(doc.getContext());
+        }
+    }
+}
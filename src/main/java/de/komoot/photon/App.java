@@ -4,17 +4,23 @@ package de.komoot.photon;
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.ParameterException;
 import de.komoot.photon.elasticsearch.DatabaseProperties;
+import de.komoot.photon.elasticsearch.ImportCheckpoints;
+import de.komoot.photon.elasticsearch.PhotonIndex;
+import de.komoot.photon.elasticsearch.Reindexer;
 import de.komoot.photon.elasticsearch.Server;
 import de.komoot.photon.nominatim.NominatimConnector;
 import de.komoot.photon.nominatim.NominatimUpdater;
+import de.komoot.photon.nominatim.WaitStrategy;
 import de.komoot.photon.utils.CorsFilter;
 import lombok.extern.slf4j.Slf4j;
 import org.elasticsearch.client.Client;
 import spark.Request;
 import spark.Response;
 
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 
 import static spark.Spark.*;
 
@@ -31,6 +37,12 @@ public class App {
             if (args.isCorsAnyOrigin() && args.getCorsOrigin() != null) { // these are mutually exclusive
                 throw new ParameterException("Use only one cors configuration type");
             }
+            if (DocumentEncoder.parseFormat(args.getBulkFormat()) == null) {
+                throw new ParameterException("Unknown bulk format: " + args.getBulkFormat());
+            }
+            if (WaitStrategy.parse(args.getImportWaitStrategy()) == null) {
+                throw new ParameterException("Unknown import wait strategy: " + args.getImportWaitStrategy());
+            }
         } catch (ParameterException e) {
             log.warn("could not start photon: " + e.getMessage());
             jCommander.usage();
@@ -48,6 +60,11 @@ public class App {
             return;
         }
 
+        if (args.getSnapshot() != null) {
+            startSnapshot(args);
+            return;
+        }
+
         boolean shutdownES = false;
         final Server esServer = new Server(args.getDataDirectory()).start(args.getCluster(), args.getTransportAddresses());
         try {
@@ -57,7 +74,31 @@ public class App {
             esClient.admin().cluster().prepareHealth().setWaitForYellowStatus().get();
             log.info("ES cluster is now ready.");
 
-            if (args.isNominatimImport()) {
+            if (args.getJsonImport() != null) {
+                shutdownES = true;
+                startJsonImport(args, esServer, esClient);
+                return;
+            }
+
+            if (args.getSnapshotImport() != null) {
+                shutdownES = true;
+                startSnapshotImport(args, esServer, esClient);
+                return;
+            }
+
+            if (args.isRollback()) {
+                shutdownES = true;
+                esServer.rollback(args.getKeepGenerations());
+                return;
+            }
+
+            if (args.isReindex()) {
+                shutdownES = true;
+                startReindex(args, esServer, esClient);
+                return;
+            }
+
+            if (args.isNominatimImport() || args.isNominatimImportResume()) {
                 shutdownES = true;
                 startNominatimImport(args, esServer, esClient);
                 return;
@@ -83,6 +124,25 @@ public class App {
     }
 
 
+    /**
+     * Create a connector to the nominatim database with the import options from the command line.
+     */
+    private static NominatimConnector createConnector(CommandLineArgs args) {
+        NominatimConnector nominatimConnector = new NominatimConnector(args.getHost(), args.getPort(), args.getDatabase(), args.getUser(), args.getPassword());
+        nominatimConnector.setReaderThreads(args.getReaderThreads());
+        nominatimConnector.setImportWorkers(args.getImportWorkers());
+        nominatimConnector.setImportBatchSize(args.getImportBatchSize());
+        nominatimConnector.setWaitStrategy(WaitStrategy.parse(args.getImportWaitStrategy()));
+        nominatimConnector.setAddressCacheSize(args.getAddressCacheSize());
+        nominatimConnector.setAggregateAddresses(args.isAggregateAddresses());
+        nominatimConnector.setUseCopy(args.isCopyReader());
+        nominatimConnector.setFilterInSql(args.isSkipUnindexedInSql());
+        nominatimConnector.setInterpolationLines(args.isInterpolationLines());
+        nominatimConnector.setDeduplicateStrings(args.isDeduplicateStrings());
+        nominatimConnector.setPlainCoordinates(args.isPlainCoordinates());
+        return nominatimConnector;
+    }
+
     /**
      * take nominatim data and dump it to json
      *
@@ -91,41 +151,226 @@ public class App {
     private static void startJsonDump(CommandLineArgs args) {
         try {
             final String filename = args.getJsonDump();
-            final JsonDumper jsonDumper = new JsonDumper(filename, args.getLanguages(), args.getExtraTags());
-            NominatimConnector nominatimConnector = new NominatimConnector(args.getHost(), args.getPort(), args.getDatabase(), args.getUser(), args.getPassword());
+            final JsonDumper jsonDumper = new JsonDumper(filename, args.getLanguages(), args.getExtraTags(),
+                    args.getJsonShards(), args.getJsonShardSize() * 1024L * 1024L, args.isJsonCompress());
+            NominatimConnector nominatimConnector = createConnector(args);
             nominatimConnector.setImporter(jsonDumper);
+            nominatimConnector.setProjection(args.getLanguages().split(","), args.getExtraTags().split(","));
             nominatimConnector.readEntireDatabase(args.getCountryCodes().split(","));
             log.info("json dump was created: " + filename);
-        } catch (FileNotFoundException e) {
+        } catch (IOException e) {
             log.error("cannot create dump", e);
         }
     }
 
+    /**
+     * Save the nominatim data in a binary snapshot.
+     *
+     * Names and extra tags are not restricted, so that the snapshot can be imported
+     * with any languages and extra tags later.
+     */
+    private static void startSnapshot(CommandLineArgs args) {
+        try {
+            final String filename = args.getSnapshot();
+            final SnapshotWriter snapshotWriter = new SnapshotWriter(filename, args.isInterpolationLines());
+            NominatimConnector nominatimConnector = createConnector(args);
+            nominatimConnector.setImporter(snapshotWriter);
+            nominatimConnector.readEntireDatabase(args.getCountryCodes().split(","));
+            log.info("snapshot was created: " + filename);
+        } catch (IOException e) {
+            log.error("cannot create snapshot", e);
+        }
+    }
+
 
     /**
      * take nominatim data to fill elastic search index
      *
+     * A new import fills a new index, while the current index stays available for searching.
+     * The new index replaces the current one when the import is done and no documents failed.
+     * When resuming, the index of the interrupted import is kept and the import continues from
+     * the last saved checkpoint.
+     *
      * @param args
      * @param esServer
      * @param esNodeClient
      */
     private static void startNominatimImport(CommandLineArgs args, Server esServer, Client esNodeClient) {
         DatabaseProperties dbProperties;
-        try {
-            dbProperties = esServer.recreateIndex(args.getLanguagesOrDefault()); // clear out previous data
-        } catch (IOException e) {
-            throw new RuntimeException("cannot setup index, elastic search config files not readable", e);
+        String indexName;
+        if (args.isNominatimImportResume()) {
+            indexName = esServer.findUnfinishedIndex();
+            if (indexName == null) {
+                throw new RuntimeException("cannot resume import, no index with the checkpoint of an interrupted import found."
+                        + " Start a new import with -nominatim-import instead.");
+            }
+            log.info("resuming import into index " + indexName);
+            dbProperties = new DatabaseProperties();
+            dbProperties.loadFromDatabase(esNodeClient, indexName);
+        } else {
+            indexName = Server.newIndexName();
+            dbProperties = createImportIndex(args, esServer, esNodeClient, indexName, args.isInterpolationLines());
+            // Marks the index as an unfinished import, until the import is complete.
+            new ImportCheckpoints(esNodeClient, indexName).save(new HashMap<>());
         }
 
+        esServer.enableBulkLoadSettings(indexName);
+
         log.info("starting import from nominatim to photon with languages: " + String.join(",", dbProperties.getLanguages()));
-        de.komoot.photon.elasticsearch.Importer importer = new de.komoot.photon.elasticsearch.Importer(esNodeClient, dbProperties.getLanguages(), args.getExtraTags());
-        NominatimConnector nominatimConnector = new NominatimConnector(args.getHost(), args.getPort(), args.getDatabase(), args.getUser(), args.getPassword());
+        de.komoot.photon.elasticsearch.Importer importer = new de.komoot.photon.elasticsearch.Importer(esNodeClient, dbProperties.getLanguages(), args.getExtraTags(),
+                args.getBulkActions(), args.getBulkSizeMb() * 1024L * 1024L, args.getBulkConcurrentRequests());
+        importer.setIndexName(indexName);
+        ImportMetrics metrics = new ImportMetrics();
+        importer.setMetrics(metrics);
+        importer.setFormat(DocumentEncoder.parseFormat(args.getBulkFormat()));
+        NominatimConnector nominatimConnector = createConnector(args);
         nominatimConnector.setImporter(importer);
+        nominatimConnector.setMetrics(metrics);
+        // A resumed import must continue with the mode saved in the index.
+        nominatimConnector.setInterpolationLines(dbProperties.isInterpolationLines());
+        nominatimConnector.setProjection(dbProperties.getLanguages(), args.getExtraTags().split(","));
+        nominatimConnector.setCheckpointStore(new ImportCheckpoints(esNodeClient, indexName));
         nominatimConnector.readEntireDatabase(args.getCountryCodes().split(","));
 
+        activateIndex(args, esServer, indexName, metrics);
+
         log.info("imported data from nominatim to photon with languages: " + String.join(",", dbProperties.getLanguages()));
     }
 
+    /**
+     * Create the index for a new import next to the current photon index.
+     */
+    private static DatabaseProperties createImportIndex(CommandLineArgs args, Server esServer, Client esNodeClient,
+                                                        String indexName, boolean interpolationLines) {
+        try {
+            DatabaseProperties dbProperties = esServer.createGeneration(indexName, args.getLanguagesOrDefault(), args.getSynonymFile());
+            if (interpolationLines) {
+                dbProperties.setInterpolationLines(true).saveToDatabase(esNodeClient, indexName);
+            }
+            return dbProperties;
+        } catch (IOException e) {
+            throw new RuntimeException("cannot setup index, elastic search config files not readable", e);
+        }
+    }
+
+    /**
+     * Make a newly filled index the photon index.
+     *
+     * When documents failed to be written, photon keeps using the old index.
+     */
+    private static void activateIndex(CommandLineArgs args, Server esServer, String indexName, ImportMetrics metrics) {
+        if (metrics.getFailedDocuments() > 0) {
+            throw new RuntimeException(String.format("%d documents could not be written, photon still uses the old index. The new index %s is kept for inspection.",
+                    metrics.getFailedDocuments(), indexName));
+        }
+
+        esServer.restoreServingSettings(indexName, args.isIndexReadOnly());
+        esServer.swapIndex(indexName, args.getKeepGenerations());
+    }
+
+    /**
+     * Load a json dump into a new elastic search index.
+     */
+    private static void startJsonImport(CommandLineArgs args, Server esServer, Client esNodeClient) {
+        String indexName = Server.newIndexName();
+        DatabaseProperties dbProperties = createImportIndex(args, esServer, esNodeClient, indexName, args.isInterpolationLines());
+
+        esServer.enableBulkLoadSettings(indexName);
+
+        log.info("loading json dump " + args.getJsonImport() + " with languages: " + String.join(",", dbProperties.getLanguages()));
+        de.komoot.photon.elasticsearch.Importer importer = new de.komoot.photon.elasticsearch.Importer(esNodeClient, dbProperties.getLanguages(), args.getExtraTags(),
+                args.getBulkActions(), args.getBulkSizeMb() * 1024L * 1024L, args.getBulkConcurrentRequests());
+        importer.setIndexName(indexName);
+        ImportMetrics metrics = new ImportMetrics();
+        importer.setMetrics(metrics);
+        JsonDumpLoader loader = new JsonDumpLoader(importer, args.getReaderThreads());
+        loader.setMetrics(metrics);
+        try {
+            loader.load(args.getJsonImport());
+        } catch (IOException e) {
+            throw new RuntimeException("cannot load json dump " + args.getJsonImport(), e);
+        }
+
+        activateIndex(args, esServer, indexName, metrics);
+
+        log.info("loaded json dump into photon");
+    }
+
+    /**
+     * Load a binary snapshot into a new elastic search index.
+     */
+    private static void startSnapshotImport(CommandLineArgs args, Server esServer, Client esNodeClient) {
+        try (SnapshotReader reader = new SnapshotReader(args.getSnapshotImport(), args.getImportWorkers())) {
+            String indexName = Server.newIndexName();
+            DatabaseProperties dbProperties = createImportIndex(args, esServer, esNodeClient, indexName, reader.isInterpolationLines());
+
+            esServer.enableBulkLoadSettings(indexName);
+
+            log.info("loading snapshot " + args.getSnapshotImport() + " with languages: " + String.join(",", dbProperties.getLanguages()));
+            de.komoot.photon.elasticsearch.Importer importer = new de.komoot.photon.elasticsearch.Importer(esNodeClient, dbProperties.getLanguages(), args.getExtraTags(),
+                    args.getBulkActions(), args.getBulkSizeMb() * 1024L * 1024L, args.getBulkConcurrentRequests());
+            importer.setIndexName(indexName);
+            ImportMetrics metrics = new ImportMetrics();
+            importer.setMetrics(metrics);
+            importer.setFormat(DocumentEncoder.parseFormat(args.getBulkFormat()));
+            reader.setMetrics(metrics);
+            long documents = reader.read(importer);
+
+            activateIndex(args, esServer, indexName, metrics);
+
+            log.info(String.format("loaded %d documents from snapshot into photon", documents));
+        } catch (IOException e) {
+            throw new RuntimeException("cannot load snapshot " + args.getSnapshotImport(), e);
+        }
+    }
+
+    /**
+     * Copy the photon index into a new index and replace the old one with it.
+     *
+     * The new index gets the current settings and mappings. The old index stays in
+     * place until the copy is complete, so that photon can be used in the meantime.
+     */
+    private static void startReindex(CommandLineArgs args, Server esServer, Client esNodeClient) {
+        DatabaseProperties oldProperties = new DatabaseProperties();
+        oldProperties.loadFromDatabase(esNodeClient);
+
+        String[] languages = args.getLanguages().isEmpty() ? oldProperties.getLanguages() : args.getLanguages().split(",");
+        List<String> oldLanguages = Arrays.asList(oldProperties.getLanguages());
+        for (String language : languages) {
+            if (!oldLanguages.contains(language)) {
+                log.warn("language " + language + " is not in the current index, its names are missing until the next import from nominatim");
+            }
+        }
+
+        String indexName = Server.newIndexName();
+        try {
+            DatabaseProperties dbProperties = esServer.createGeneration(indexName, languages, args.getSynonymFile());
+            if (oldProperties.isInterpolationLines()) {
+                dbProperties.setInterpolationLines(true).saveToDatabase(esNodeClient, indexName);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("cannot setup index, elastic search config files not readable", e);
+        }
+
+        esServer.enableBulkLoadSettings(indexName);
+
+        log.info("reindexing photon into " + indexName + " with languages: " + String.join(",", languages));
+        de.komoot.photon.elasticsearch.Importer importer = new de.komoot.photon.elasticsearch.Importer(esNodeClient, languages, args.getExtraTags(),
+                args.getBulkActions(), args.getBulkSizeMb() * 1024L * 1024L, args.getBulkConcurrentRequests());
+        importer.setIndexName(indexName);
+        ImportMetrics metrics = new ImportMetrics();
+        importer.setMetrics(metrics);
+        Reindexer reindexer = new Reindexer(esNodeClient, PhotonIndex.NAME, importer, languages,
+                args.getExtraTags().isEmpty() ? null : args.getExtraTags().split(","));
+        reindexer.setSlices(args.getReaderThreads());
+        reindexer.setMetrics(metrics);
+        long documents = reindexer.reindex();
+
+        activateIndex(args, esServer, indexName, metrics);
+
+        log.info(String.format("reindexed %d documents into photon", documents));
+    }
+
     /**
      * Prepare Nominatim updater
      *
@@ -138,8 +383,10 @@ public class App {
         dbProperties.loadFromDatabase(esNodeClient);
 
         NominatimUpdater nominatimUpdater = new NominatimUpdater(args.getHost(), args.getPort(), args.getDatabase(), args.getUser(), args.getPassword());
-        Updater updater = new de.komoot.photon.elasticsearch.Updater(esNodeClient, dbProperties.getLanguages(), args.getExtraTags());
+        de.komoot.photon.elasticsearch.Updater updater = new de.komoot.photon.elasticsearch.Updater(esNodeClient, dbProperties.getLanguages(), args.getExtraTags());
+        updater.setFormat(DocumentEncoder.parseFormat(args.getBulkFormat()));
         nominatimUpdater.setUpdater(updater);
+        nominatimUpdater.setInterpolationLines(dbProperties.isInterpolationLines());
         return nominatimUpdater;
     }
 
@@ -170,10 +417,10 @@ public class App {
         }
 
         // setup search API
-        get("api", new SearchRequestHandler("api", esNodeClient, dbProperties.getLanguages(), args.getDefaultLanguage()));
-        get("api/", new SearchRequestHandler("api/", esNodeClient, dbProperties.getLanguages(), args.getDefaultLanguage()));
-        get("reverse", new ReverseSearchRequestHandler("reverse", esNodeClient, dbProperties.getLanguages(), args.getDefaultLanguage()));
-        get("reverse/", new ReverseSearchRequestHandler("reverse/", esNodeClient, dbProperties.getLanguages(), args.getDefaultLanguage()));
+        get("api", new SearchRequestHandler("api", esNodeClient, dbProperties, args.getDefaultLanguage()));
+        get("api/", new SearchRequestHandler("api/", esNodeClient, dbProperties, args.getDefaultLanguage()));
+        get("reverse", new ReverseSearchRequestHandler("reverse", esNodeClient, dbProperties, args.getDefaultLanguage()));
+        get("reverse/", new ReverseSearchRequestHandler("reverse/", esNodeClient, dbProperties, args.getDefaultLanguage()));
 
         if (args.isEnableUpdateApi()) {
             // setup update API
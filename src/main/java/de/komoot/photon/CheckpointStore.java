@@ -0,0 +1,33 @@
+package de.komoot.photon;
+
+import java.util.Map;
+
+/**
+ * Persistent storage for the progress of a bulk import, so that an interrupted
+ * import can be resumed.
+ *
+ * A checkpoint maps the name of each source table to the place_id from which
+ * reading must continue. All rows with a smaller place_id are guaranteed to have
+ * been handed to the importer and flushed.
+ */
+public interface CheckpointStore {
+    /**
+     * Load the last saved checkpoint.
+     *
+     * @return Map of table names to start place_id. Empty when no checkpoint exists.
+     */
+    Map<String, Long> load();
+
+    /**
+     * Replace the saved checkpoint with the given one.
+     *
+     * All documents covered by the checkpoint must have been persisted, so that they
+     * are not lost when the import is interrupted.
+     */
+    void save(Map<String, Long> checkpoint);
+
+    /**
+     * Remove the saved checkpoint once the import is complete.
+     */
+    void clear();
+}
@@ -20,6 +20,18 @@ public class CommandLineArgs {
     @Parameter(names = "-nominatim-import", description = "import nominatim database into photon (this will delete previous index)")
     private boolean nominatimImport = false;
 
+    @Parameter(names = "-nominatim-import-resume", description = "continue an interrupted nominatim import from its last checkpoint (keeps the existing index, use the same -country-codes as for the original import)")
+    private boolean nominatimImportResume = false;
+
+    @Parameter(names = "-reindex", description = "copy the photon index into a new index with the current settings and mappings and replace it, without connecting to nominatim. Names and extra tags are restricted to -languages and -extra-tags, if given")
+    private boolean reindex = false;
+
+    @Parameter(names = "-keep-generations", description = "number of previous indices to keep after an import or reindex for -rollback (default 0)")
+    private int keepGenerations = 0;
+
+    @Parameter(names = "-rollback", description = "switch photon back to the previous index kept with -keep-generations")
+    private boolean rollback = false;
+
     @Parameter(names = "-nominatim-update", description = "fetch updates from nominatim database into photon and exit (this updates the index only without offering an API)")
     private boolean nominatimUpdate = false;
 
@@ -32,6 +44,54 @@ public class CommandLineArgs {
     @Parameter(names = "-country-codes", description = "country codes filter that nominatim importer should import, comma separated. If empty full planet is done")
     private String countryCodes = "";
 
+    @Parameter(names = "-reader-threads", description = "number of parallel database connections to use for reading nominatim data during import (default 1)")
+    private int readerThreads = 1;
+
+    @Parameter(names = "-import-workers", description = "number of threads converting documents and sending them to the index during import (default 1)")
+    private int importWorkers = 1;
+
+    @Parameter(names = "-import-batch-size", description = "number of documents handed from the database readers to the import workers at once (default 100)")
+    private int importBatchSize = 100;
+
+    @Parameter(names = "-import-wait-strategy", description = "how readers and import workers wait for the queue between them: spin, yield or park (default park)")
+    private String importWaitStrategy = "park";
+
+    @Parameter(names = "-address-cache-size", description = "number of address hierarchies to keep in memory during import (default 100000)")
+    private long addressCacheSize = 100000;
+
+    @Parameter(names = "-aggregate-addresses", description = "fetch the address hierarchy of each place as part of the main import query instead of running separate queries per place")
+    private boolean aggregateAddresses = false;
+
+    @Parameter(names = "-bulk-actions", description = "maximum number of documents per bulk request sent to elasticsearch during import (default 10000)")
+    private int bulkActions = 10000;
+
+    @Parameter(names = "-bulk-size", description = "maximum size of a bulk request sent to elasticsearch during import in MB (default 20)")
+    private int bulkSizeMb = 20;
+
+    @Parameter(names = "-bulk-concurrent-requests", description = "number of bulk requests that may be in flight at the same time during import (default 1)")
+    private int bulkConcurrentRequests = 1;
+
+    @Parameter(names = "-bulk-format", description = "format of the documents sent to elasticsearch during import and updates: json, smile or cbor (default json)")
+    private String bulkFormat = "json";
+
+    @Parameter(names = "-copy-reader", description = "read placex with a binary COPY stream instead of JDBC during import (faster, PostgreSQL only)")
+    private boolean copyReader = false;
+
+    @Parameter(names = "-skip-unindexed-in-sql", description = "exclude places that are not indexed (places without name or house number, place=houses without house number) already in the placex query during import (PostgreSQL only)")
+    private boolean skipUnindexedInSql = false;
+
+    @Parameter(names = "-interpolation-lines", description = "import each address interpolation as a single document with its house number range; numbers are resolved at query time")
+    private boolean interpolationLines = false;
+
+    @Parameter(names = "-plain-coordinates", description = "let the database return bounding boxes and centroids as plain coordinates instead of geometries during import (PostgreSQL only)")
+    private boolean plainCoordinates = false;
+
+    @Parameter(names = "-deduplicate-strings", description = "share repeated strings like tag names, name keys and address names between documents during import to reduce memory usage")
+    private boolean deduplicateStrings = false;
+
+    @Parameter(names = "-index-read-only", description = "block writes to the index after a nominatim import has finished (the index can then no longer be updated)")
+    private boolean indexReadOnly = false;
+
     @Parameter(names = "-extra-tags", description = "additional tags to save for each place")
     private String extraTags = "";
 
@@ -41,6 +101,24 @@ public class CommandLineArgs {
     @Parameter(names = "-json", description = "import nominatim database and dump it to a json like files in (useful for developing)")
     private String jsonDump = null;
 
+    @Parameter(names = "-json-shards", description = "number of files the json dump is written to in parallel (default 1)")
+    private int jsonShards = 1;
+
+    @Parameter(names = "-json-shard-size", description = "size in MB after which a new file of the json dump is started, 0 for no limit (default 0)")
+    private int jsonShardSize = 0;
+
+    @Parameter(names = "-json-compress", description = "compress the files of the json dump with gzip")
+    private boolean jsonCompress = false;
+
+    @Parameter(names = "-json-import", description = "load a dump created with -json into a new index, without connecting to nominatim")
+    private String jsonImport = null;
+
+    @Parameter(names = "-snapshot", description = "import nominatim database with all names and extra tags into a binary snapshot file")
+    private String snapshot = null;
+
+    @Parameter(names = "-snapshot-import", description = "load a snapshot created with -snapshot into a new index, without connecting to nominatim")
+    private String snapshotImport = null;
+
     @Parameter(names = "-host", description = "postgres host (default 127.0.0.1)")
     private String host = "127.0.0.1";
 
@@ -0,0 +1,132 @@
+package de.komoot.photon;
+
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Encodes photon documents for index requests.
+ *
+ * The documents are written into a buffer per thread that is reused for all documents,
+ * so that only the final copy handed to the request needs to be allocated. Besides JSON,
+ * the binary SMILE and CBOR formats of elasticsearch are supported. They are more compact
+ * and cheaper to parse for elasticsearch. Only JSON documents can take their address part
+ * from an {@link AddressFragmentCache}.
+ *
+ * The encoder is thread-safe.
+ */
+public class DocumentEncoder {
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+
+    private final XContentType contentType;
+    private final String[] languages;
+    private final String[] extraTags;
+    private final AddressFragmentCache addressFragments;
+    private final ThreadLocal<Buffer> buffers = ThreadLocal.withInitial(Buffer::new);
+
+    public DocumentEncoder(XContentType contentType, String[] languages, String[] extraTags) {
+        this.contentType = contentType;
+        this.languages = languages;
+        this.extraTags = extraTags;
+        this.addressFragments = contentType == XContentType.JSON ? new AddressFragmentCache(languages) : null;
+    }
+
+    /**
+     * Get the content type for the name of a format.
+     *
+     * @param format One of json, smile or cbor.
+     *
+     * @return The content type or null if the format is not supported.
+     */
+    public static XContentType parseFormat(String format) {
+        switch (format.toLowerCase()) {
+            case "json":
+                return XContentType.JSON;
+            case "smile":
+                return XContentType.SMILE;
+            case "cbor":
+                return XContentType.CBOR;
+            default:
+                return null;
+        }
+    }
+
+    public XContentType getContentType() {
+        return contentType;
+    }
+
+    /**
+     * Encode a single document.
+     */
+    public BytesReference encode(PhotonDoc doc) throws IOException {
+        return new BytesArray(encodeToArray(doc));
+    }
+
+    private byte[] encodeToArray(PhotonDoc doc) throws IOException {
+        Buffer buffer = buffers.get();
+        buffer.reset();
+
+        XContentBuilder builder = XContentFactory.contentBuilder(contentType, buffer);
+        if (addressFragments == null) {
+            Utils.write(builder, doc, languages, extraTags).close();
+        } else {
+            Utils.writeWithoutAddress(builder, doc, languages, extraTags).close();
+            buffer.appendObject(addressFragments.getBytes(doc));
+        }
+
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Encode the documents for all house numbers of the base document.
+     */
+    public BytesReference[] encode(PhotonDoc base, HousenumberVariants variants) throws IOException {
+        BytesReference[] results = new BytesReference[variants.size()];
+
+        if (addressFragments == null) {
+            for (int i = 0; i < results.length; ++i) {
+                results[i] = encode(base.withHousenumber(variants.getHousenumber(i), variants.getLon(i), variants.getLat(i)));
+            }
+            return results;
+        }
+
+        byte[] shared = encodeToArray(new PhotonDoc(base).houseNumber(null).centroid(null));
+        Buffer buffer = buffers.get();
+        for (int i = 0; i < results.length; ++i) {
+            buffer.reset();
+            Utils.writeVariant(XContentFactory.contentBuilder(contentType, buffer),
+                    variants.getHousenumber(i), variants.getLon(i), variants.getLat(i)).close();
+            buffer.appendObject(shared);
+            results[i] = new BytesArray(buffer.toByteArray());
+        }
+
+        return results;
+    }
+
+    /**
+     * Growable byte buffer that allows to merge JSON objects.
+     */
+    private static class Buffer extends ByteArrayOutputStream {
+        Buffer() {
+            super(INITIAL_BUFFER_SIZE);
+        }
+
+        /**
+         * Merge the fields of the given JSON object into the JSON object in the buffer.
+         */
+        void appendObject(byte[] json) {
+            if (json.length <= 2) {
+                return;
+            }
+
+            // Replace the closing brace in the buffer with a comma and leave out the opening brace.
+            buf[count - 1] = ',';
+            write(json, 1, json.length - 1);
+        }
+    }
+}
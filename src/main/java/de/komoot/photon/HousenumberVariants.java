@@ -0,0 +1,23 @@
+package de.komoot.photon;
+
+/**
+ * List of house numbers with their positions that belong to the same base document.
+ *
+ * Each entry stands for a copy of the base document that only differs in
+ * house number and centroid.
+ */
+public interface HousenumberVariants {
+    int size();
+
+    String getHousenumber(int index);
+
+    /**
+     * @return Longitude of the house number or NaN if the position is unknown.
+     */
+    double getLon(int index);
+
+    /**
+     * @return Latitude of the house number or NaN if the position is unknown.
+     */
+    double getLat(int index);
+}
@@ -0,0 +1,281 @@
+package de.komoot.photon;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Timers and counters for the different stages of a bulk import.
+ *
+ * Stage times are collected from all threads, so they may add up to more than
+ * the wall time of the import. Comparing them shows where the import spends its time:
+ * a high fetch time and workers waiting for documents point to the database,
+ * readers waiting for the queue together with a high bulk time point to elasticsearch.
+ *
+ * While the import is running, the metrics are available via JMX and are
+ * written regularly to the log.
+ */
+@Slf4j
+public class ImportMetrics implements ImportMetricsMBean {
+    private static final String MBEAN_NAME = "de.komoot.photon:type=ImportMetrics";
+    private static final long REPORT_INTERVAL_SECONDS = 60;
+
+    /**
+     * Measured stages of the import.
+     */
+    public enum Stage {
+        /** waiting for the next row from the database */
+        FETCH,
+        /** converting a database row into photon documents, including the address lookup */
+        MAPPING,
+        /** collecting the address hierarchy of a place */
+        ADDRESS_LOOKUP,
+        /** serializing a document for the importer */
+        CONVERT,
+        /** database readers waiting for space in the import queue */
+        QUEUE_PUT_WAIT,
+        /** import workers waiting for documents */
+        QUEUE_TAKE_WAIT,
+        /** complete execution time of bulk requests as seen by the client */
+        BULK,
+        /** execution time of bulk requests as reported by elasticsearch */
+        ES_TOOK
+    }
+
+    private final LongAdder[] stageNanos = new LongAdder[Stage.values().length];
+    private final LongAdder rowsRead = new LongAdder();
+    private final LongAdder documents = new LongAdder();
+    private final LongAdder failedDocuments = new LongAdder();
+    private final LongAdder queueFillSum = new LongAdder();
+    private final LongAdder queueFillSamples = new LongAdder();
+    private volatile long rowsEstimate = 0;
+    private volatile long startMillis = System.currentTimeMillis();
+
+    private ScheduledExecutorService reporter = null;
+    private ObjectName registeredName = null;
+
+    public ImportMetrics() {
+        for (int i = 0; i < stageNanos.length; ++i) {
+            stageNanos[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Add the time spent in the given stage.
+     *
+     * @param stage     Stage the time was spent in.
+     * @param startNanos Start of the measurement as returned by {@link System#nanoTime()}.
+     */
+    public void addTime(Stage stage, long startNanos) {
+        addNanos(stage, System.nanoTime() - startNanos);
+    }
+
+    public void addNanos(Stage stage, long nanos) {
+        stageNanos[stage.ordinal()].add(nanos);
+    }
+
+    public void countRow() {
+        rowsRead.increment();
+    }
+
+    public void countDocuments(long count) {
+        documents.add(count);
+    }
+
+    public void countFailedDocuments(long count) {
+        failedDocuments.add(count);
+    }
+
+    /**
+     * Record the number of batches waiting in the import queue.
+     *
+     * A queue that is mostly full means that the workers cannot keep up with the
+     * database readers, a mostly empty one that the readers are the bottleneck.
+     */
+    public void sampleQueueOccupancy(int size, int capacity) {
+        if (capacity > 0) {
+            queueFillSum.add(100L * size / capacity);
+            queueFillSamples.increment();
+        }
+    }
+
+    /**
+     * Set the estimated number of rows in the source tables, used for computing the ETA.
+     */
+    public void setRowsEstimate(long estimate) {
+        rowsEstimate = estimate;
+    }
+
+    /**
+     * Start timing the import, register the JMX bean and start the regular log output.
+     */
+    public synchronized void start() {
+        startMillis = System.currentTimeMillis();
+
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(MBEAN_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+                registeredName = name;
+            }
+        } catch (JMException e) {
+            log.warn("Cannot register import metrics with JMX", e);
+        }
+
+        if (reporter == null) {
+            reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "photon-import-metrics");
+                thread.setDaemon(true);
+                return thread;
+            });
+            reporter.scheduleAtFixedRate(() -> log.info(report()),
+                    REPORT_INTERVAL_SECONDS, REPORT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Stop the regular log output, unregister the JMX bean and log the final numbers.
+     */
+    public synchronized void stop() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+            reporter = null;
+        }
+
+        if (registeredName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+            } catch (JMException e) {
+                log.warn("Cannot unregister import metrics from JMX", e);
+            }
+            registeredName = null;
+        }
+
+        log.info(report());
+    }
+
+    /**
+     * Create a single log line with all metrics in key=value format.
+     */
+    public String report() {
+        StringBuilder sb = new StringBuilder("import metrics:");
+        sb.append(" rows=").append(getRowsRead());
+        sb.append(" rows_estimate=").append(getRowsEstimate());
+        sb.append(" documents=").append(getDocuments());
+        sb.append(" failed=").append(getFailedDocuments());
+        sb.append(String.format(" rows_per_second=%.1f", getRowsPerSecond()));
+        sb.append(" eta_seconds=").append(getEtaSeconds());
+        sb.append(" queue_fill_percent=").append(getQueueFillPercent());
+        for (Stage stage : Stage.values()) {
+            sb.append(' ').append(stage.name().toLowerCase()).append("_ms=").append(getStageMillis(stage));
+        }
+
+        return sb.toString();
+    }
+
+    public long getStageMillis(Stage stage) {
+        return stageNanos[stage.ordinal()].sum() / 1000000;
+    }
+
+    @Override
+    public long getRowsRead() {
+        return rowsRead.sum();
+    }
+
+    @Override
+    public long getRowsEstimate() {
+        return rowsEstimate;
+    }
+
+    @Override
+    public long getDocuments() {
+        return documents.sum();
+    }
+
+    @Override
+    public double getRowsPerSecond() {
+        return rowsPerSecond(getRowsRead(), System.currentTimeMillis() - startMillis);
+    }
+
+    @Override
+    public long getEtaSeconds() {
+        return etaSeconds(getRowsRead(), rowsEstimate, System.currentTimeMillis() - startMillis);
+    }
+
+    static double rowsPerSecond(long rows, long elapsedMillis) {
+        return elapsedMillis > 0 ? 1000d * rows / elapsedMillis : 0;
+    }
+
+    /**
+     * Estimate the remaining time from the rate at which rows were read so far.
+     *
+     * @return The remaining seconds or -1 if there is no estimate.
+     */
+    static long etaSeconds(long rows, long rowsEstimate, long elapsedMillis) {
+        double rate = rowsPerSecond(rows, elapsedMillis);
+        if (rowsEstimate <= 0 || rate <= 0) {
+            return -1;
+        }
+
+        return (long) (Math.max(0, rowsEstimate - rows) / rate);
+    }
+
+    @Override
+    public long getFetchMillis() {
+        return getStageMillis(Stage.FETCH);
+    }
+
+    @Override
+    public long getMappingMillis() {
+        return getStageMillis(Stage.MAPPING);
+    }
+
+    @Override
+    public long getAddressLookupMillis() {
+        return getStageMillis(Stage.ADDRESS_LOOKUP);
+    }
+
+    @Override
+    public long getConvertMillis() {
+        return getStageMillis(Stage.CONVERT);
+    }
+
+    @Override
+    public long getQueuePutWaitMillis() {
+        return getStageMillis(Stage.QUEUE_PUT_WAIT);
+    }
+
+    @Override
+    public long getQueueTakeWaitMillis() {
+        return getStageMillis(Stage.QUEUE_TAKE_WAIT);
+    }
+
+    @Override
+    public long getQueueFillPercent() {
+        long samples = queueFillSamples.sum();
+        return samples > 0 ? queueFillSum.sum() / samples : 0;
+    }
+
+    @Override
+    public long getBulkMillis() {
+        return getStageMillis(Stage.BULK);
+    }
+
+    @Override
+    public long getEsTookMillis() {
+        return getStageMillis(Stage.ES_TOOK);
+    }
+
+    @Override
+    public long getFailedDocuments() {
+        return failedDocuments.sum();
+    }
+}
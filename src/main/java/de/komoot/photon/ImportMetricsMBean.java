@@ -0,0 +1,43 @@
+package de.komoot.photon;
+
+/**
+ * JMX view of the {@link ImportMetrics}. All times are wall-clock milliseconds
+ * summed up over all threads.
+ */
+public interface ImportMetricsMBean {
+    long getRowsRead();
+
+    long getRowsEstimate();
+
+    long getDocuments();
+
+    double getRowsPerSecond();
+
+    /**
+     * @return Estimated remaining import time in seconds or -1 if unknown.
+     */
+    long getEtaSeconds();
+
+    long getFetchMillis();
+
+    long getMappingMillis();
+
+    long getAddressLookupMillis();
+
+    long getConvertMillis();
+
+    long getQueuePutWaitMillis();
+
+    long getQueueTakeWaitMillis();
+
+    /**
+     * @return Average fill level of the import queue in percent.
+     */
+    long getQueueFillPercent();
+
+    long getBulkMillis();
+
+    long getEsTookMillis();
+
+    long getFailedDocuments();
+}
@@ -9,10 +9,42 @@ public interface Importer {
     /**
      * a new document was imported
      *
+     * May be called concurrently from multiple import workers.
+     *
      * @param doc
      */
     public void add(PhotonDoc doc);
 
+    /**
+     * a group of new documents that only differ in house number and position
+     *
+     * The default implementation adds a copy of the base document for each house number.
+     * Importers may override this to convert the shared part only once.
+     *
+     * @param base Document with the information shared by all house numbers.
+     * @param variants House numbers and their positions.
+     */
+    default void add(PhotonDoc base, HousenumberVariants variants) {
+        for (int i = 0; i < variants.size(); ++i) {
+            add(base.withHousenumber(variants.getHousenumber(i), variants.getLon(i), variants.getLat(i)));
+        }
+    }
+
+    /**
+     * make sure that all documents added so far are persisted
+     *
+     * Must not be called concurrently with {@link #add(PhotonDoc)}.
+     */
+    default void flush() {
+    }
+
+    /**
+     * number of documents that could not be persisted so far
+     */
+    default long getFailedDocuments() {
+        return 0;
+    }
+
     /**
      * import is finished
      */
@@ -0,0 +1,136 @@
+package de.komoot.photon;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import lombok.Getter;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Address interpolation line that is saved as a single document.
+ *
+ * The line runs from house number <code>first</code> at its start to <code>last</code> at its end.
+ * The numbers that actually belong to the interpolation are <code>start</code>, <code>start + step</code>,
+ * ... up to <code>end</code>. The position of a house number is found by linear interpolation
+ * along the line.
+ */
+@Getter
+public class InterpolationLine {
+    public static final String FIELD = "interpolation";
+
+    private final long first;
+    private final long last;
+    private final long start;
+    private final long end;
+    private final long step;
+    /** Vertices of the line as lon/lat pairs. */
+    private final double[] coordinates;
+
+    public InterpolationLine(long first, long last, long start, long end, long step, double[] coordinates) {
+        this.first = first;
+        this.last = last;
+        this.start = start;
+        this.end = end;
+        this.step = step;
+        this.coordinates = coordinates;
+    }
+
+    public InterpolationLine(long first, long last, long start, long end, long step, Coordinate[] line) {
+        this(first, last, start, end, step, toArray(line));
+    }
+
+    private static double[] toArray(Coordinate[] line) {
+        double[] coordinates = new double[2 * line.length];
+        for (int i = 0; i < line.length; ++i) {
+            coordinates[2 * i] = line[i].x;
+            coordinates[2 * i + 1] = line[i].y;
+        }
+        return coordinates;
+    }
+
+    /**
+     * Restore an interpolation line from the <code>interpolation</code> field of an indexed document.
+     */
+    public static InterpolationLine fromSource(Map<String, Object> source) {
+        List<List<Number>> line = (List<List<Number>>) source.get("line");
+        double[] coordinates = new double[2 * line.size()];
+        for (int i = 0; i < line.size(); ++i) {
+            coordinates[2 * i] = line.get(i).get(0).doubleValue();
+            coordinates[2 * i + 1] = line.get(i).get(1).doubleValue();
+        }
+
+        return new InterpolationLine(((Number) source.get("first")).longValue(), ((Number) source.get("last")).longValue(),
+                ((Number) source.get("start")).longValue(), ((Number) source.get("end")).longValue(),
+                ((Number) source.get("step")).longValue(), coordinates);
+    }
+
+    /**
+     * @return True, if the given house number is part of the interpolation.
+     */
+    public boolean contains(long housenumber) {
+        return housenumber >= start && housenumber <= end && (housenumber - start) % step == 0;
+    }
+
+    /**
+     * Compute the position of a house number on the line.
+     *
+     * @return Longitude and latitude of the house number.
+     */
+    public double[] getPosition(long housenumber) {
+        double target = length() * (housenumber - first) / (double) (last - first);
+
+        for (int i = 2; i < coordinates.length; i += 2) {
+            double segment = segmentLength(i);
+            if (target <= segment && segment > 0) {
+                double frac = target / segment;
+                return new double[]{coordinates[i - 2] + frac * (coordinates[i] - coordinates[i - 2]),
+                                    coordinates[i - 1] + frac * (coordinates[i + 1] - coordinates[i - 1])};
+            }
+            target -= segment;
+        }
+
+        return new double[]{coordinates[coordinates.length - 2], coordinates[coordinates.length - 1]};
+    }
+
+    /**
+     * Find the house number of the interpolation that is closest to the given point.
+     */
+    public long getNearestHousenumber(double lon, double lat) {
+        double bestDistance = Double.MAX_VALUE;
+        double bestPosition = 0;
+        double position = 0;
+
+        for (int i = 2; i < coordinates.length; i += 2) {
+            double dx = coordinates[i] - coordinates[i - 2];
+            double dy = coordinates[i + 1] - coordinates[i - 1];
+            double segment = segmentLength(i);
+            double frac = segment > 0
+                    ? Math.max(0, Math.min(1, ((lon - coordinates[i - 2]) * dx + (lat - coordinates[i - 1]) * dy) / (segment * segment)))
+                    : 0;
+            double px = coordinates[i - 2] + frac * dx - lon;
+            double py = coordinates[i - 1] + frac * dy - lat;
+            double distance = px * px + py * py;
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                bestPosition = position + frac * segment;
+            }
+            position += segment;
+        }
+
+        double number = position > 0 ? first + (last - first) * bestPosition / position : start;
+        long steps = Math.round((number - start) / step);
+        return start + Math.max(0, Math.min((end - start) / step, steps)) * step;
+    }
+
+    private double length() {
+        double length = 0;
+        for (int i = 2; i < coordinates.length; i += 2) {
+            length += segmentLength(i);
+        }
+        return length;
+    }
+
+    private double segmentLength(int i) {
+        return Math.hypot(coordinates[i] - coordinates[i - 2], coordinates[i + 1] - coordinates[i - 1]);
+    }
+}
@@ -0,0 +1,409 @@
+package de.komoot.photon;
+
+import de.komoot.photon.elasticsearch.Importer;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Loads a dump created by {@link JsonDumper} into elasticsearch.
+ *
+ * The file is split into byte ranges at record boundaries. The ranges are memory-mapped
+ * and read by several threads in parallel, which all feed the same importer. The documents
+ * are sent as they are, without parsing them.
+ *
+ * Dumps that were split into several files are loaded through their manifest, see
+ * {@link ShardedDumpWriter}. Compressed files cannot be split and are read by one thread
+ * each. Their checksum is verified while reading. The checksum of an uncompressed file is
+ * computed by a separate task, next to the tasks reading its ranges.
+ */
+@Slf4j
+public class JsonDumpLoader {
+    private static final byte[] ACTION_PREFIX = "{\"index\"".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] ID_KEY = "\"_id\"".getBytes(StandardCharsets.UTF_8);
+    private static final long MAX_RANGE_SIZE = 256L * 1024 * 1024;
+    private static final int RANGES_PER_THREAD = 4;
+    private static final int SCAN_BUFFER_SIZE = 64 * 1024;
+
+    private final Importer importer;
+    private final int numThreads;
+    private ImportMetrics metrics = new ImportMetrics();
+
+    /**
+     * @param importer   Importer to send the documents to.
+     * @param numThreads Number of threads reading the dump in parallel.
+     */
+    public JsonDumpLoader(Importer importer, int numThreads) {
+        this.importer = importer;
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    public void setMetrics(ImportMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Load all documents of the dump and wait until they have been imported.
+     *
+     * @param filename A dump file, a gzip-compressed dump file or the manifest of a sharded dump.
+     */
+    public void load(String filename) throws IOException {
+        List<DumpFile> files = filename.endsWith(ShardedDumpWriter.MANIFEST_SUFFIX)
+                ? readManifest(Paths.get(filename))
+                : Collections.singletonList(new DumpFile(Paths.get(filename), filename.endsWith(".gz"), -1, null));
+
+        List<FileChannel> channels = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        metrics.start();
+        try {
+            List<List<Future<Long>>> tasks = new ArrayList<>();
+            List<Future<?>> checks = new ArrayList<>();
+            for (DumpFile file : files) {
+                List<Future<Long>> fileTasks = new ArrayList<>();
+                if (file.compressed) {
+                    log.info(String.format("loading %s (compressed)", file.path));
+                    fileTasks.add(executor.submit(() -> loadCompressed(file)));
+                } else {
+                    FileChannel channel = FileChannel.open(file.path, StandardOpenOption.READ);
+                    channels.add(channel);
+                    int numRanges = (int) Math.max(((long) numThreads * RANGES_PER_THREAD + files.size() - 1) / files.size(),
+                            channel.size() / MAX_RANGE_SIZE + 1);
+                    List<long[]> ranges = computeRanges(channel, numRanges);
+                    log.info(String.format("loading %s (%d bytes) in %d parts with %d threads",
+                            file.path, channel.size(), ranges.size(), numThreads));
+                    for (long[] range : ranges) {
+                        fileTasks.add(executor.submit(() -> loadRange(channel, range[0], range[1])));
+                    }
+                    if (file.sha256 != null) {
+                        checks.add(executor.submit(() -> verifyChecksum(channel, file)));
+                    }
+                }
+                tasks.add(fileTasks);
+            }
+
+            for (int i = 0; i < files.size(); ++i) {
+                long documents = 0;
+                for (Future<Long> task : tasks.get(i)) {
+                    documents += waitForTask(task);
+                }
+                DumpFile file = files.get(i);
+                if (file.documents >= 0 && documents != file.documents) {
+                    log.warn(String.format("%s contains %d documents, but the manifest lists %d",
+                            file.path, documents, file.documents));
+                }
+            }
+            for (Future<?> check : checks) {
+                waitForTask(check);
+            }
+        } finally {
+            executor.shutdownNow();
+            for (FileChannel channel : channels) {
+                channel.close();
+            }
+        }
+
+        importer.finish();
+        metrics.stop();
+    }
+
+    /**
+     * Get the files of a sharded dump. The files are expected next to the manifest.
+     */
+    static List<DumpFile> readManifest(Path manifestPath) throws IOException {
+        JSONObject manifest = new JSONObject(new String(Files.readAllBytes(manifestPath), StandardCharsets.UTF_8));
+        if (!ShardedDumpWriter.MANIFEST_FORMAT.equals(manifest.optString("format"))) {
+            throw new IOException(manifestPath + " is not the manifest of a json dump");
+        }
+
+        boolean compressed = "gzip".equals(manifest.optString("compression"));
+        Path dir = manifestPath.toAbsolutePath().getParent();
+        List<DumpFile> files = new ArrayList<>();
+        JSONArray entries = manifest.getJSONArray("files");
+        for (int i = 0; i < entries.length(); ++i) {
+            JSONObject entry = entries.getJSONObject(i);
+            files.add(new DumpFile(dir.resolve(entry.getString("name")), compressed,
+                    entry.optLong("documents", -1), entry.optString("sha256", null)));
+        }
+
+        return files;
+    }
+
+    private static <T> T waitForTask(Future<T> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading dump", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Error while loading dump", e.getCause());
+        }
+    }
+
+    /**
+     * Split the file into half-open ranges [from, to) which each start with an index action.
+     *
+     * @return The ranges in file order. May be fewer than requested, if the records are large.
+     */
+    static List<long[]> computeRanges(FileChannel channel, int numRanges) throws IOException {
+        long size = channel.size();
+        List<long[]> ranges = new ArrayList<>();
+        long start = 0;
+        for (int i = 1; i <= numRanges && start < size; ++i) {
+            long end = i == numRanges ? size : findRecordStart(channel, Math.max(start + 1, size * i / numRanges));
+            if (end > start) {
+                ranges.add(new long[]{start, end});
+                start = end;
+            }
+        }
+
+        return ranges;
+    }
+
+    /**
+     * Find the start of the first line with an index action at or after the given position.
+     *
+     * @return The position of the action or the size of the file if there is none.
+     */
+    static long findRecordStart(FileChannel channel, long position) throws IOException {
+        if (position == 0) {
+            return 0;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        // Start at the character before, so that a line starting exactly at the position is found.
+        long bufferStart = position - 1;
+        while (bufferStart < channel.size()) {
+            buffer.clear();
+            int read = channel.read(buffer, bufferStart);
+            if (read <= 0) {
+                break;
+            }
+            // Leave room for the prefix at the end of the buffer. The next round starts there again.
+            int limit = bufferStart + read >= channel.size() ? read : read - ACTION_PREFIX.length;
+            for (int i = 0; i < limit; ++i) {
+                if (buffer.get(i) == '\n' && startsWith(buffer, i + 1, read, ACTION_PREFIX)) {
+                    return bufferStart + i + 1;
+                }
+            }
+            bufferStart += Math.max(1, limit);
+        }
+
+        return channel.size();
+    }
+
+    private static boolean startsWith(ByteBuffer buffer, int offset, int limit, byte[] prefix) {
+        if (offset + prefix.length > limit) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; ++i) {
+            if (buffer.get(offset + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long loadRange(FileChannel channel, long from, long to) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+        RecordReader reader = new RecordReader();
+        int lineStart = 0;
+        int end = buffer.limit();
+        for (int i = 0; i <= end; ++i) {
+            if (i < end && buffer.get(i) != '\n') {
+                continue;
+            }
+            reader.line(buffer, lineStart, i);
+            lineStart = i + 1;
+        }
+
+        return reader.documents;
+    }
+
+    private static MessageDigest newDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 not supported", e);
+        }
+    }
+
+    private static void checkDigest(DumpFile file, MessageDigest digest) throws IOException {
+        if (file.sha256 != null && !file.sha256.equals(ShardedDumpWriter.toHex(digest.digest()))) {
+            throw new IOException("checksum of " + file.path + " does not match the manifest");
+        }
+    }
+
+    private static Void verifyChecksum(FileChannel channel, DumpFile file) throws IOException {
+        MessageDigest digest = newDigest();
+        ByteBuffer buffer = ByteBuffer.allocate(16 * SCAN_BUFFER_SIZE);
+        long position = 0;
+        int read;
+        while ((read = channel.read(buffer, position)) > 0) {
+            buffer.flip();
+            digest.update(buffer);
+            buffer.clear();
+            position += read;
+        }
+        checkDigest(file, digest);
+
+        return null;
+    }
+
+    private long loadCompressed(DumpFile file) throws IOException {
+        MessageDigest digest = newDigest();
+
+        RecordReader reader = new RecordReader();
+        try (InputStream in = new GZIPInputStream(new DigestInputStream(Files.newInputStream(file.path), digest), SCAN_BUFFER_SIZE)) {
+            byte[] block = new byte[SCAN_BUFFER_SIZE];
+            ByteBuffer blockBuffer = ByteBuffer.wrap(block);
+            // Collects lines that continue over the end of a block.
+            byte[] line = new byte[SCAN_BUFFER_SIZE];
+            int length = 0;
+            int read;
+            while ((read = in.read(block)) >= 0) {
+                int lineStart = 0;
+                for (int i = 0; i < read; ++i) {
+                    if (block[i] != '\n') {
+                        continue;
+                    }
+                    if (length == 0) {
+                        reader.line(blockBuffer, lineStart, i);
+                    } else {
+                        line = append(line, length, block, lineStart, i);
+                        length += i - lineStart;
+                        reader.line(ByteBuffer.wrap(line), 0, length);
+                        length = 0;
+                    }
+                    lineStart = i + 1;
+                }
+                line = append(line, length, block, lineStart, read);
+                length += read - lineStart;
+            }
+            reader.line(ByteBuffer.wrap(line), 0, length);
+        }
+
+        checkDigest(file, digest);
+
+        return reader.documents;
+    }
+
+    /**
+     * Append the bytes [from, to) of the block to the line, growing the line if needed.
+     *
+     * @return The line with the appended bytes.
+     */
+    private static byte[] append(byte[] line, int length, byte[] block, int from, int to) {
+        if (length + to - from > line.length) {
+            line = Arrays.copyOf(line, Math.max(2 * line.length, length + to - from));
+        }
+        System.arraycopy(block, from, line, length, to - from);
+        return line;
+    }
+
+    /**
+     * Get the document id from an index action.
+     *
+     * @return The id or null if the action has none.
+     */
+    static String parseId(ByteBuffer buffer, int from, int to) {
+        int pos = indexOf(buffer, from, to, ID_KEY);
+        if (pos < 0) {
+            return null;
+        }
+
+        pos += ID_KEY.length;
+        while (pos < to && buffer.get(pos) != '"') {
+            ++pos;
+        }
+
+        byte[] id = new byte[to - pos];
+        int length = 0;
+        for (++pos; pos < to && buffer.get(pos) != '"'; ++pos) {
+            byte c = buffer.get(pos);
+            if (c == '\\' && pos + 1 < to) {
+                c = buffer.get(++pos);
+            }
+            id[length++] = c;
+        }
+
+        return new String(id, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private static int indexOf(ByteBuffer buffer, int from, int to, byte[] needle) {
+        for (int i = from; i + needle.length <= to; ++i) {
+            if (startsWith(buffer, i, to, needle)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Turns the lines of a dump into index requests.
+     */
+    private class RecordReader {
+        private String id = null;
+        private long documents = 0;
+
+        void line(ByteBuffer buffer, int from, int to) {
+            if (to <= from) {
+                return;
+            }
+
+            if (startsWith(buffer, from, to, ACTION_PREFIX)) {
+                id = parseId(buffer, from, to);
+            } else {
+                byte[] source = new byte[to - from];
+                buffer.position(from);
+                buffer.get(source);
+                metrics.countRow();
+                metrics.countDocuments(1);
+                importer.add(id, new BytesArray(source), XContentType.JSON);
+                ++documents;
+                id = null;
+            }
+        }
+    }
+
+    static class DumpFile {
+        private final Path path;
+        private final boolean compressed;
+        private final long documents;
+        private final String sha256;
+
+        DumpFile(Path path, boolean compressed, long documents, String sha256) {
+            this.path = path;
+            this.compressed = compressed;
+            this.documents = documents;
+            this.sha256 = sha256;
+        }
+    }
+}
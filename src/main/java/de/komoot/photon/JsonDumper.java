@@ -2,32 +2,77 @@ package de.komoot.photon;
 
 import lombok.extern.slf4j.Slf4j;
 
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.PrintWriter;
 
 /**
  * useful to create json files that can be used for fast re imports
+ * with {@link JsonDumpLoader}
+ *
+ * The dump may be compressed and split into several files, see {@link ShardedDumpWriter}.
  *
  * @author christoph
  */
 @Slf4j
 public class JsonDumper implements Importer {
-    private PrintWriter writer = null;
-    private final String[] languages;
+    private final ShardedDumpWriter output;
     private final String[] extraTags;
+    private final AddressFragmentCache addressFragments;
+
+    public JsonDumper(String filename, String languages, String extraTags) throws IOException {
+        this(filename, languages, extraTags, 1, 0, false);
+    }
 
-    public JsonDumper(String filename, String languages, String extraTags) throws FileNotFoundException {
-        this.writer = new PrintWriter(filename);
-        this.languages = languages.split(",");
+    /**
+     * Create a dumper that writes compressed or sharded output.
+     *
+     * @param numShards    Number of files written in parallel.
+     * @param maxFileBytes Size after which a new file is started. 0 for no limit.
+     * @param compress     Compress the files with gzip.
+     */
+    public JsonDumper(String filename, String languages, String extraTags,
+                      int numShards, long maxFileBytes, boolean compress) throws IOException {
+        this.output = new ShardedDumpWriter(filename, numShards, maxFileBytes, compress);
+        this.addressFragments = new AddressFragmentCache(languages.split(","));
         this.extraTags = extraTags.split(",");
     }
 
     @Override
     public void add(PhotonDoc doc) {
         try {
-            writer.println("{\"index\": {}}");
-            writer.println(Utils.convert(doc, languages, extraTags).string());
+            String json = Utils.convert(doc, extraTags, addressFragments);
+            output.write(indexAction(doc.getUid()) + '\n' + json + '\n', 1);
+        } catch (IOException e) {
+            log.error("error writing json file", e);
+        }
+    }
+
+    @Override
+    public void add(PhotonDoc base, HousenumberVariants variants) {
+        try {
+            String shared = Utils.convertShared(base, extraTags, addressFragments);
+            StringBuilder lines = new StringBuilder();
+            for (int i = 0; i < variants.size(); ++i) {
+                lines.append(indexAction(base.getUid(variants.getHousenumber(i)))).append('\n')
+                     .append(Utils.convertVariant(shared, variants.getHousenumber(i), variants.getLon(i), variants.getLat(i)))
+                     .append('\n');
+            }
+            output.write(lines.toString(), variants.size());
+        } catch (IOException e) {
+            log.error("error writing json file", e);
+        }
+    }
+
+    /**
+     * Create the bulk action line for a document, so that the document keeps its id on re-import.
+     */
+    private static String indexAction(String uid) {
+        return "{\"index\": {\"_id\": \"" + uid.replace("\\", "\\\\").replace("\"", "\\\"") + "\"}}";
+    }
+
+    @Override
+    public void flush() {
+        try {
+            output.flush();
         } catch (IOException e) {
             log.error("error writing json file", e);
         }
@@ -35,8 +80,10 @@ public class JsonDumper implements Importer {
 
     @Override
     public void finish() {
-        if (writer != null) {
-            writer.close();
+        try {
+            output.close();
+        } catch (IOException e) {
+            log.error("error closing json file", e);
         }
     }
 }
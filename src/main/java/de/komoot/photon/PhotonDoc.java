@@ -2,9 +2,12 @@ package de.komoot.photon;
 
 import com.google.common.collect.ImmutableMap;
 import com.neovisionaries.i18n.CountryCode;
+import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.PrecisionModel;
 import de.komoot.photon.nominatim.model.AddressType;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
@@ -19,6 +22,8 @@ import java.util.*;
 @Getter
 @Slf4j
 public class PhotonDoc {
+    private static final GeometryFactory FACTORY = new GeometryFactory(new PrecisionModel(), 4326);
+
     private final long placeId;
     private final String osmType;
     private final long osmId;
@@ -28,7 +33,11 @@ public class PhotonDoc {
     private Map<String, String> name = Collections.emptyMap();
     private String postcode = null;
     private Map<String, String> extratags = Collections.emptyMap();
-    private Envelope bbox = null;
+    // Bounding box and centroid are kept as plain coordinates, NaN when unset.
+    private double bboxMinLon = Double.NaN;
+    private double bboxMinLat = Double.NaN;
+    private double bboxMaxLon = Double.NaN;
+    private double bboxMaxLat = Double.NaN;
     private long parentPlaceId = 0; // 0 if unset
     private double importance = 0;
     private CountryCode countryCode = null;
@@ -38,7 +47,9 @@ public class PhotonDoc {
     private Map<AddressType, Map<String, String>> addressParts = new EnumMap<>(AddressType.class);
     private Set<Map<String, String>> context = new HashSet<>();
     private String houseNumber = null;
-    private Point centroid = null;
+    private double centroidLon = Double.NaN;
+    private double centroidLat = Double.NaN;
+    private InterpolationLine interpolation = null;
 
     public PhotonDoc(long placeId, String osmType, long osmId, String tagKey, String tagValue) {
         this.placeId = placeId;
@@ -58,17 +69,35 @@ public class PhotonDoc {
         this.houseNumber = other.houseNumber;
         this.postcode = other.postcode;
         this.extratags = other.extratags;
-        this.bbox = other.bbox;
+        this.bboxMinLon = other.bboxMinLon;
+        this.bboxMinLat = other.bboxMinLat;
+        this.bboxMaxLon = other.bboxMaxLon;
+        this.bboxMaxLat = other.bboxMaxLat;
         this.parentPlaceId = other.parentPlaceId;
         this.importance = other.importance;
         this.countryCode = other.countryCode;
-        this.centroid = other.centroid;
+        this.centroidLon = other.centroidLon;
+        this.centroidLat = other.centroidLat;
+        this.interpolation = other.interpolation;
         this.linkedPlaceId = other.linkedPlaceId;
         this.rankAddress = other.rankAddress;
         this.addressParts = other.addressParts;
         this.context = other.context;
     }
 
+    /**
+     * Create a copy of this document with the given house number and position.
+     *
+     * @param lon Longitude of the house number, NaN if unknown.
+     * @param lat Latitude of the house number, NaN if unknown.
+     */
+    public PhotonDoc withHousenumber(String houseNumber, double lon, double lat) {
+        PhotonDoc copy = new PhotonDoc(this);
+        copy.houseNumber(houseNumber);
+        copy.centroid(lon, lat);
+        return copy;
+    }
+
     public PhotonDoc names(Map<String, String> names) {
         this.name = names;
         return this;
@@ -79,18 +108,73 @@ public class PhotonDoc {
         return this;
     }
 
+    public PhotonDoc interpolation(InterpolationLine interpolation) {
+        this.interpolation = interpolation;
+        return this;
+    }
+
     public PhotonDoc bbox(Geometry geom) {
         if (geom != null) {
-            this.bbox = geom.getEnvelopeInternal();
+            bbox(geom.getEnvelopeInternal());
+        }
+        return this;
+    }
+
+    public PhotonDoc bbox(Envelope envelope) {
+        if (envelope != null && !envelope.isNull()) {
+            bbox(envelope.getMinX(), envelope.getMinY(), envelope.getMaxX(), envelope.getMaxY());
         }
         return this;
     }
 
+    public PhotonDoc bbox(double minLon, double minLat, double maxLon, double maxLat) {
+        this.bboxMinLon = minLon;
+        this.bboxMinLat = minLat;
+        this.bboxMaxLon = maxLon;
+        this.bboxMaxLat = maxLat;
+        return this;
+    }
+
     public PhotonDoc centroid(Geometry centroid) {
-        this.centroid = (Point) centroid;
+        if (centroid == null) {
+            return centroid(Double.NaN, Double.NaN);
+        }
+
+        Point point = (Point) centroid;
+        return centroid(point.getX(), point.getY());
+    }
+
+    /**
+     * Set the centroid from plain coordinates. NaN removes the centroid.
+     */
+    public PhotonDoc centroid(double lon, double lat) {
+        this.centroidLon = lon;
+        this.centroidLat = Double.isNaN(lon) ? Double.NaN : lat;
         return this;
     }
 
+    public boolean hasCentroid() {
+        return !Double.isNaN(centroidLon);
+    }
+
+    /**
+     * @return The centroid as a JTS point or null if unset. A new point is created with every call.
+     */
+    public Point getCentroid() {
+        return hasCentroid() ? FACTORY.createPoint(new Coordinate(centroidLon, centroidLat)) : null;
+    }
+
+    public boolean hasBbox() {
+        return !Double.isNaN(bboxMinLon);
+    }
+
+    /**
+     * @return The bounding box or null if unset. A new envelope is created with every call.
+     */
+    public Envelope getBbox() {
+        return hasBbox() ? new Envelope(bboxMinLon, bboxMaxLon, bboxMinLat, bboxMaxLat) : null;
+    }
+
     public PhotonDoc countryCode(String countryCode) {
         this.countryCode = CountryCode.getByCode(countryCode, false);
         return this;
@@ -162,10 +246,18 @@ public class PhotonDoc {
     }
 
     public String getUid() {
+        return getUid(houseNumber);
+    }
+
+    /**
+     * Get the unique ID of a copy of this document with the given house number.
+     */
+    public String getUid(String houseNumber) {
         if (houseNumber == null)
             return String.valueOf(placeId);
-        else
-            return String.valueOf(placeId) + "." + houseNumber;
+
+        return new StringBuilder(21 + houseNumber.length())
+                .append(placeId).append('.').append(houseNumber).toString();
     }
 
 
@@ -178,7 +270,7 @@ public class PhotonDoc {
 
         if (linkedPlaceId > 0) return false;
 
-        return houseNumber != null || !name.isEmpty();
+        return houseNumber != null || interpolation != null || !name.isEmpty();
     }
     
     /**
@@ -194,9 +286,9 @@ public class PhotonDoc {
         String field = address.get(addressFieldName);
 
         if (field != null) {
-            Map<String, String> map = addressParts.computeIfAbsent(addressType, k -> new HashMap<>());
+            Map<String, String> existing = addressParts.get(addressType);
 
-            String existingName = map.get("name");
+            String existingName = existing == null ? null : existing.get("name");
             if (!field.equals(existingName)) {
                 if (log.isDebugEnabled()) {
                     log.debug("Replacing " + addressFieldName + " name '" + existingName + "' with '" + field + "' for osmId #" + osmId);
@@ -205,7 +297,10 @@ public class PhotonDoc {
                 if (!Objects.isNull(existingName)) {
                     context.add(ImmutableMap.of("formerName", existingName));
                 }
+                // The names may be shared with other documents, so change a copy.
+                Map<String, String> map = existing == null ? new HashMap<>() : new HashMap<>(existing);
                 map.put("name", field);
+                addressParts.put(addressType, map);
             }
         }
     }
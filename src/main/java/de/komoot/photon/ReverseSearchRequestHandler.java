@@ -1,5 +1,6 @@
 package de.komoot.photon;
 
+import de.komoot.photon.elasticsearch.DatabaseProperties;
 import de.komoot.photon.query.BadRequestException;
 import de.komoot.photon.query.ReverseRequest;
 import de.komoot.photon.query.ReverseRequestFactory;
@@ -25,9 +26,9 @@ public class ReverseSearchRequestHandler extends RouteImpl {
     private final ReverseRequestHandler requestHandler;
     private final ConvertToGeoJson geoJsonConverter;
 
-    ReverseSearchRequestHandler(String path, Client esNodeClient, String[] languages, String defaultLanguage) {
+    ReverseSearchRequestHandler(String path, Client esNodeClient, DatabaseProperties dbProperties, String defaultLanguage) {
         super(path);
-        List<String> supportedLanguages = Arrays.asList(languages);
+        List<String> supportedLanguages = Arrays.asList(dbProperties.getLanguages());
         this.reverseRequestFactory = new ReverseRequestFactory(supportedLanguages, defaultLanguage);
         this.geoJsonConverter = new ConvertToGeoJson();
         this.requestHandler = new ReverseRequestHandler(new ReverseElasticsearchSearcher(esNodeClient));
@@ -1,5 +1,6 @@
 package de.komoot.photon;
 
+import de.komoot.photon.elasticsearch.DatabaseProperties;
 import de.komoot.photon.query.BadRequestException;
 import de.komoot.photon.query.PhotonRequest;
 import de.komoot.photon.query.PhotonRequestFactory;
@@ -25,12 +26,13 @@ public class SearchRequestHandler extends RouteImpl {
     private final PhotonRequestHandler requestHandler;
     private final ConvertToGeoJson geoJsonConverter;
 
-    SearchRequestHandler(String path, Client esNodeClient, String[] languages, String defaultLanguage) {
+    SearchRequestHandler(String path, Client esNodeClient, DatabaseProperties dbProperties, String defaultLanguage) {
         super(path);
-        List<String> supportedLanguages = Arrays.asList(languages);
+        List<String> supportedLanguages = Arrays.asList(dbProperties.getLanguages());
         this.photonRequestFactory = new PhotonRequestFactory(supportedLanguages, defaultLanguage);
         this.geoJsonConverter = new ConvertToGeoJson();
-        this.requestHandler = new PhotonRequestHandler(new BaseElasticsearchSearcher(esNodeClient), supportedLanguages);
+        this.requestHandler = new PhotonRequestHandler(new BaseElasticsearchSearcher(esNodeClient), supportedLanguages,
+                                                       dbProperties.isInterpolationLines());
     }
 
     @Override
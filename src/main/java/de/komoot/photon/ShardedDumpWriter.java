@@ -0,0 +1,247 @@
+package de.komoot.photon;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the records of a dump into several files in parallel.
+ *
+ * Each thread writes to its own shard, as long as there are not more threads than shards,
+ * so that threads do not wait for each other while compressing. A shard starts a new file
+ * when the current one has reached the maximum size. Compressed files may grow a bit beyond
+ * the size, because the compressor keeps some data back. Records are never split between files,
+ * so that each file can be sent to elasticsearch as a bulk request on its own.
+ *
+ * When more than one file may be created or the output is compressed, a manifest with
+ * the number of documents and the SHA-256 checksum of each file is written on close.
+ */
+class ShardedDumpWriter implements Closeable {
+    static final String MANIFEST_SUFFIX = ".manifest.json";
+    static final String MANIFEST_FORMAT = "photon-json-dump";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String filename;
+    private final long maxFileBytes;
+    private final boolean compress;
+    private final boolean split;
+    private final Shard[] shards;
+    private final AtomicInteger nextShard = new AtomicInteger();
+    private final AtomicInteger nextFile = new AtomicInteger();
+    private final ThreadLocal<Shard> threadShard = ThreadLocal.withInitial(
+            () -> shardFor(nextShard.getAndIncrement()));
+    private final List<JSONObject> finishedFiles = new ArrayList<>();
+
+    /**
+     * @param filename     Name of the dump. With more than one file, the files get a running number
+     *                     appended to the name.
+     * @param numShards    Number of files written in parallel.
+     * @param maxFileBytes Size after which a new file is started. 0 for no limit.
+     * @param compress     Compress the files with gzip.
+     */
+    ShardedDumpWriter(String filename, int numShards, long maxFileBytes, boolean compress) throws IOException {
+        this.filename = filename;
+        this.maxFileBytes = Math.max(0, maxFileBytes);
+        this.compress = compress;
+        this.split = numShards > 1 || this.maxFileBytes > 0;
+        this.shards = new Shard[Math.max(1, numShards)];
+        for (int i = 0; i < shards.length; ++i) {
+            shards[i] = new Shard();
+        }
+
+        if (!split) {
+            // Create the single file right away, so that an unwritable file is noticed early.
+            shards[0].openFile();
+        }
+    }
+
+    private Shard shardFor(int index) {
+        return shards[index % shards.length];
+    }
+
+    /**
+     * @return True, if a manifest is written for the dump.
+     */
+    boolean hasManifest() {
+        return split || compress;
+    }
+
+    /**
+     * Write complete records to the shard of the current thread.
+     *
+     * @param records Lines with bulk actions and documents, ending with a newline.
+     * @param numDocs Number of documents in the records.
+     */
+    void write(String records, int numDocs) throws IOException {
+        byte[] bytes = records.getBytes(StandardCharsets.UTF_8);
+        Shard shard = threadShard.get();
+        synchronized (shard) {
+            shard.write(bytes, numDocs);
+        }
+    }
+
+    void flush() throws IOException {
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                shard.flush();
+            }
+        }
+    }
+
+    /**
+     * Close all files and write the manifest.
+     */
+    @Override
+    public void close() throws IOException {
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                shard.closeFile();
+            }
+        }
+
+        if (!hasManifest()) {
+            return;
+        }
+
+        long documents = 0;
+        JSONArray files = new JSONArray();
+        synchronized (finishedFiles) {
+            finishedFiles.sort((a, b) -> a.getString("name").compareTo(b.getString("name")));
+            for (JSONObject file : finishedFiles) {
+                documents += file.getLong("documents");
+                files.put(file);
+            }
+        }
+
+        JSONObject manifest = new JSONObject()
+                .put("format", MANIFEST_FORMAT)
+                .put("compression", compress ? "gzip" : "none")
+                .put("documents", documents)
+                .put("files", files);
+        Files.write(new File(filename + MANIFEST_SUFFIX).toPath(), manifest.toString(2).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String nextFilename() {
+        if (!split) {
+            return filename;
+        }
+        return String.format("%s.%05d%s", filename, nextFile.getAndIncrement(), compress ? ".gz" : "");
+    }
+
+    private void fileFinished(File file, long documents, long bytes, byte[] digest) {
+        synchronized (finishedFiles) {
+            finishedFiles.add(new JSONObject()
+                    .put("name", file.getName())
+                    .put("documents", documents)
+                    .put("bytes", bytes)
+                    .put("sha256", toHex(digest)));
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * A single output file at a time. Must be used under its own lock.
+     */
+    private class Shard {
+        private File file = null;
+        private OutputStream out;
+        private CountingOutputStream counter;
+        private MessageDigest digest;
+        private long documents;
+
+        void write(byte[] records, int numDocs) throws IOException {
+            if (file == null) {
+                openFile();
+            }
+
+            out.write(records);
+            documents += numDocs;
+
+            if (maxFileBytes > 0 && counter.count >= maxFileBytes) {
+                closeFile();
+            }
+        }
+
+        void flush() throws IOException {
+            if (file != null) {
+                out.flush();
+            }
+        }
+
+        private void openFile() throws IOException {
+            file = new File(nextFilename());
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IOException("SHA-256 not supported", e);
+            }
+            OutputStream fileOut = new DigestOutputStream(new FileOutputStream(file), digest);
+            if (compress) {
+                counter = new CountingOutputStream(fileOut);
+                out = new GZIPOutputStream(counter, BUFFER_SIZE);
+            } else {
+                counter = new CountingOutputStream(new BufferedOutputStream(fileOut, BUFFER_SIZE));
+                out = counter;
+            }
+            documents = 0;
+        }
+
+        void closeFile() throws IOException {
+            if (file == null) {
+                return;
+            }
+
+            out.close();
+            if (hasManifest()) {
+                fileFinished(file, documents, counter.count, digest.digest());
+            }
+            file = null;
+        }
+    }
+
+    /**
+     * Counts the bytes that end up in the file.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count = 0;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            ++count;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package de.komoot.photon;
+
+import de.komoot.photon.nominatim.model.AddressType;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Replays a snapshot written by {@link SnapshotWriter} into any importer.
+ *
+ * The file is read by a single thread, while the blocks of documents are decoded and
+ * handed to the importer by several threads in parallel.
+ */
+public class SnapshotReader implements Closeable {
+    private static final AddressType[] ADDRESS_TYPES = AddressType.values();
+
+    private final DataInputStream input;
+    private final int numThreads;
+    private final boolean interpolationLines;
+    private ImportMetrics metrics = new ImportMetrics();
+
+    /**
+     * Open the snapshot and read its header.
+     *
+     * @param numThreads Number of threads decoding documents and adding them to the importer.
+     */
+    public SnapshotReader(String filename, int numThreads) throws IOException {
+        this.input = new DataInputStream(new BufferedInputStream(new FileInputStream(filename), 1024 * 1024));
+        this.numThreads = Math.max(1, numThreads);
+
+        try {
+            byte[] magic = new byte[SnapshotWriter.MAGIC.length];
+            input.readFully(magic);
+            if (!Arrays.equals(magic, SnapshotWriter.MAGIC)) {
+                throw new IOException(filename + " is not a photon snapshot");
+            }
+            int version = input.readInt();
+            if (version != SnapshotWriter.VERSION) {
+                throw new IOException("Unsupported snapshot version " + version + " in " + filename);
+            }
+            interpolationLines = (input.readInt() & SnapshotWriter.FLAG_INTERPOLATION_LINES) != 0;
+        } catch (IOException e) {
+            input.close();
+            throw e;
+        }
+    }
+
+    public void setMetrics(ImportMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return True, if interpolations were saved as lines instead of single house numbers.
+     */
+    public boolean isInterpolationLines() {
+        return interpolationLines;
+    }
+
+    /**
+     * Add all documents of the snapshot to the importer and finish it.
+     *
+     * @return The number of documents read.
+     */
+    public long read(Importer importer) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        // Limit the number of blocks in memory, when the importer is slower than the file.
+        Semaphore pending = new Semaphore(2 * numThreads);
+        List<Future<Long>> tasks = new ArrayList<>();
+        metrics.start();
+        try {
+            byte[] block;
+            while ((block = readBlock()) != null) {
+                pending.acquireUninterruptibly();
+                final byte[] data = block;
+                tasks.add(executor.submit(() -> {
+                    try {
+                        return decodeBlock(data, importer);
+                    } finally {
+                        pending.release();
+                    }
+                }));
+            }
+
+            long documents = 0;
+            for (Future<Long> task : tasks) {
+                documents += waitForTask(task);
+            }
+
+            importer.finish();
+            metrics.stop();
+
+            return documents;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private byte[] readBlock() throws IOException {
+        int length;
+        try {
+            length = input.readInt();
+        } catch (EOFException e) {
+            throw new IOException("Snapshot is truncated", e);
+        }
+        if (length == 0) {
+            return null;
+        }
+
+        byte[] block = new byte[length];
+        input.readFully(block);
+        return block;
+    }
+
+    private static long waitForTask(Future<Long> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading snapshot", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Error while reading snapshot", e.getCause());
+        }
+    }
+
+    private long decodeBlock(byte[] data, Importer importer) {
+        BlockDecoder decoder = new BlockDecoder(data);
+        while (decoder.hasMore()) {
+            int kind = (int) decoder.readVarLong();
+            PhotonDoc doc = decoder.readDoc();
+            metrics.countRow();
+            if (kind == SnapshotWriter.RECORD_VARIANTS) {
+                Variants variants = decoder.readVariants();
+                metrics.countDocuments(variants.size());
+                importer.add(doc, variants);
+            } else {
+                metrics.countDocuments(1);
+                importer.add(doc);
+            }
+        }
+
+        return decoder.documents;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+
+    /**
+     * Reads the documents of a single block.
+     */
+    private static class BlockDecoder {
+        private final byte[] data;
+        private final long documents;
+        private final String[] dictionary;
+        private int pos = 0;
+
+        BlockDecoder(byte[] data) {
+            this.data = data;
+            documents = readVarLong();
+            dictionary = new String[(int) readVarLong()];
+            for (int i = 0; i < dictionary.length; ++i) {
+                dictionary[i] = readText();
+            }
+        }
+
+        boolean hasMore() {
+            return pos < data.length;
+        }
+
+        PhotonDoc readDoc() {
+            String osmType = readKey();
+            long placeId = readSignedVarLong();
+            long osmId = readSignedVarLong();
+            String tagKey = readKey();
+            String tagValue = readKey();
+            PhotonDoc doc = new PhotonDoc(placeId, osmType, osmId, tagKey, tagValue)
+                    .names(readMap())
+                    .postcode(readText())
+                    .extraTags(readMap())
+                    .bbox(readDouble(), readDouble(), readDouble(), readDouble())
+                    .parentPlaceId(readSignedVarLong())
+                    .importance(readDouble())
+                    .countryCode(readKey())
+                    .linkedPlaceId(readSignedVarLong())
+                    .rankAddress((int) readSignedVarLong());
+
+            long numParts = readVarLong();
+            for (long i = 0; i < numParts; ++i) {
+                doc.setAddressPartIfNew(ADDRESS_TYPES[(int) readVarLong()], readMap());
+            }
+            long numContext = readVarLong();
+            for (long i = 0; i < numContext; ++i) {
+                doc.getContext().add(readMap());
+            }
+
+            doc.houseNumber(readText());
+            doc.centroid(readDouble(), readDouble());
+
+            long numCoordinates = readVarLong();
+            if (numCoordinates > 0) {
+                double[] coordinates = new double[(int) numCoordinates - 1];
+                for (int i = 0; i < coordinates.length; ++i) {
+                    coordinates[i] = readDouble();
+                }
+                doc.interpolation(new InterpolationLine(readSignedVarLong(), readSignedVarLong(),
+                        readSignedVarLong(), readSignedVarLong(), readSignedVarLong(), coordinates));
+            }
+
+            return doc;
+        }
+
+        Variants readVariants() {
+            int size = (int) readVarLong();
+            Variants variants = new Variants(size);
+            for (int i = 0; i < size; ++i) {
+                variants.housenumbers[i] = readText();
+                variants.coordinates[2 * i] = readDouble();
+                variants.coordinates[2 * i + 1] = readDouble();
+            }
+            return variants;
+        }
+
+        Map<String, String> readMap() {
+            long size = readVarLong();
+            if (size == 0) {
+                return null;
+            }
+
+            Map<String, String> map = new HashMap<>((int) size * 4 / 3 + 1);
+            for (long i = 1; i < size; ++i) {
+                String key = readKey();
+                map.put(key, readText());
+            }
+            return map;
+        }
+
+        String readKey() {
+            int index = (int) readVarLong();
+            return index == 0 ? null : dictionary[index - 1];
+        }
+
+        String readText() {
+            int length = (int) readVarLong();
+            if (length == 0) {
+                return null;
+            }
+
+            String text = new String(data, pos, length - 1, StandardCharsets.UTF_8);
+            pos += length - 1;
+            return text;
+        }
+
+        double readDouble() {
+            long bits = 0;
+            for (int i = 0; i < 8; ++i) {
+                bits = (bits << 8) | (data[pos++] & 0xFF);
+            }
+            return Double.longBitsToDouble(bits);
+        }
+
+        long readSignedVarLong() {
+            long value = readVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        long readVarLong() {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[pos++];
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+    }
+
+    private static class Variants implements HousenumberVariants {
+        private final String[] housenumbers;
+        private final double[] coordinates;
+
+        Variants(int size) {
+            housenumbers = new String[size];
+            coordinates = new double[2 * size];
+        }
+
+        @Override
+        public int size() {
+            return housenumbers.length;
+        }
+
+        @Override
+        public String getHousenumber(int index) {
+            return housenumbers[index];
+        }
+
+        @Override
+        public double getLon(int index) {
+            return coordinates[2 * index];
+        }
+
+        @Override
+        public double getLat(int index) {
+            return coordinates[2 * index + 1];
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package de.komoot.photon;
+
+import de.komoot.photon.nominatim.model.AddressType;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Saves photon documents in a binary snapshot that can be replayed with {@link SnapshotReader}.
+ *
+ * Unlike a json dump, the snapshot keeps the documents as they come from nominatim, so that
+ * it can be imported again with other languages or extra tags, as long as nominatim was read
+ * without restricting names and extra tags.
+ *
+ * The file starts with magic bytes, the format version and flags. The documents follow in blocks,
+ * each prefixed with its length. An empty block marks the end of the file. Every block has its own
+ * dictionary for keys and tag values, which are then referenced by their number. Numbers are written
+ * as variable-length integers and coordinates as doubles. Each import thread fills its own block, so
+ * threads only wait for each other when a full block is written to the file.
+ */
+@Slf4j
+public class SnapshotWriter implements Importer {
+    static final byte[] MAGIC = {'P', 'H', 'S', 'N'};
+    static final int VERSION = 1;
+    static final int FLAG_INTERPOLATION_LINES = 1;
+    static final int RECORD_DOC = 0;
+    static final int RECORD_VARIANTS = 1;
+    private static final int BLOCK_SIZE = 1024 * 1024;
+
+    private final DataOutputStream output;
+    private final List<Block> blocks = new ArrayList<>();
+    private final ThreadLocal<Block> threadBlock = ThreadLocal.withInitial(this::newBlock);
+    private long documents = 0;
+
+    /**
+     * @param interpolationLines True, if interpolations are saved as lines instead of single house numbers.
+     */
+    public SnapshotWriter(String filename, boolean interpolationLines) throws IOException {
+        output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename), BLOCK_SIZE));
+        output.write(MAGIC);
+        output.writeInt(VERSION);
+        output.writeInt(interpolationLines ? FLAG_INTERPOLATION_LINES : 0);
+    }
+
+    private Block newBlock() {
+        Block block = new Block();
+        synchronized (blocks) {
+            blocks.add(block);
+        }
+        return block;
+    }
+
+    @Override
+    public void add(PhotonDoc doc) {
+        Block block = threadBlock.get();
+        block.writeVarLong(RECORD_DOC);
+        block.writeDoc(doc);
+        block.documents += 1;
+        writeIfFull(block);
+    }
+
+    @Override
+    public void add(PhotonDoc base, HousenumberVariants variants) {
+        Block block = threadBlock.get();
+        block.writeVarLong(RECORD_VARIANTS);
+        block.writeDoc(base);
+        block.writeVarLong(variants.size());
+        for (int i = 0; i < variants.size(); ++i) {
+            block.writeText(variants.getHousenumber(i));
+            block.writeDouble(variants.getLon(i));
+            block.writeDouble(variants.getLat(i));
+        }
+        block.documents += variants.size();
+        writeIfFull(block);
+    }
+
+    private void writeIfFull(Block block) {
+        if (block.size() >= BLOCK_SIZE) {
+            try {
+                writeBlock(block);
+            } catch (IOException e) {
+                log.error("error writing snapshot", e);
+            }
+        }
+    }
+
+    private void writeBlock(Block block) throws IOException {
+        if (block.documents == 0) {
+            return;
+        }
+
+        Block header = new Block(16 * block.strings.size() + 16);
+        header.writeVarLong(block.documents);
+        header.writeVarLong(block.strings.size());
+        for (String s : block.strings) {
+            header.writeText(s);
+        }
+
+        synchronized (output) {
+            output.writeInt(header.size() + block.size());
+            header.writeTo(output);
+            block.writeTo(output);
+            documents += block.documents;
+        }
+        block.clear();
+    }
+
+    @Override
+    public void flush() {
+        try {
+            synchronized (blocks) {
+                for (Block block : blocks) {
+                    writeBlock(block);
+                }
+            }
+            synchronized (output) {
+                output.flush();
+            }
+        } catch (IOException e) {
+            log.error("error writing snapshot", e);
+        }
+    }
+
+    @Override
+    public void finish() {
+        flush();
+        try {
+            synchronized (output) {
+                output.writeInt(0);
+                output.close();
+                log.info(String.format("snapshot contains %d documents", documents));
+            }
+        } catch (IOException e) {
+            log.error("error closing snapshot", e);
+        }
+    }
+
+    /**
+     * Encoded documents together with the dictionary of their keys.
+     */
+    private static class Block extends ByteArrayOutputStream {
+        private final Map<String, Integer> dictionary = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+        private long documents = 0;
+
+        Block() {
+            this(BLOCK_SIZE + BLOCK_SIZE / 4);
+        }
+
+        Block(int size) {
+            super(size);
+        }
+
+        void clear() {
+            reset();
+            dictionary.clear();
+            strings.clear();
+            documents = 0;
+        }
+
+        void writeDoc(PhotonDoc doc) {
+            writeKey(doc.getOsmType());
+            writeSignedVarLong(doc.getPlaceId());
+            writeSignedVarLong(doc.getOsmId());
+            writeKey(doc.getTagKey());
+            writeKey(doc.getTagValue());
+            writeMap(doc.getName());
+            writeText(doc.getPostcode());
+            writeMap(doc.getExtratags());
+            writeDouble(doc.getBboxMinLon());
+            writeDouble(doc.getBboxMinLat());
+            writeDouble(doc.getBboxMaxLon());
+            writeDouble(doc.getBboxMaxLat());
+            writeSignedVarLong(doc.getParentPlaceId());
+            writeDouble(doc.getImportance());
+            writeKey(doc.getCountryCode() == null ? null : doc.getCountryCode().getAlpha2());
+            writeSignedVarLong(doc.getLinkedPlaceId());
+            writeSignedVarLong(doc.getRankAddress());
+
+            writeVarLong(doc.getAddressParts().size());
+            for (Map.Entry<AddressType, Map<String, String>> part : doc.getAddressParts().entrySet()) {
+                writeVarLong(part.getKey().ordinal());
+                writeMap(part.getValue());
+            }
+            Set<Map<String, String>> context = doc.getContext();
+            writeVarLong(context.size());
+            for (Map<String, String> names : context) {
+                writeMap(names);
+            }
+
+            writeText(doc.getHouseNumber());
+            writeDouble(doc.getCentroidLon());
+            writeDouble(doc.getCentroidLat());
+
+            InterpolationLine line = doc.getInterpolation();
+            if (line == null) {
+                writeVarLong(0);
+            } else {
+                writeVarLong(line.getCoordinates().length + 1);
+                for (double c : line.getCoordinates()) {
+                    writeDouble(c);
+                }
+                writeSignedVarLong(line.getFirst());
+                writeSignedVarLong(line.getLast());
+                writeSignedVarLong(line.getStart());
+                writeSignedVarLong(line.getEnd());
+                writeSignedVarLong(line.getStep());
+            }
+        }
+
+        /**
+         * Write a map with dictionary keys. Null is written as size 0, any other map with its size + 1.
+         */
+        void writeMap(Map<String, String> map) {
+            if (map == null) {
+                writeVarLong(0);
+                return;
+            }
+
+            writeVarLong(map.size() + 1);
+            for (Map.Entry<String, String> e : map.entrySet()) {
+                writeKey(e.getKey());
+                writeText(e.getValue());
+            }
+        }
+
+        /**
+         * Write a string from a small set of values as a reference into the dictionary. 0 is null.
+         */
+        void writeKey(String key) {
+            if (key == null) {
+                writeVarLong(0);
+                return;
+            }
+
+            Integer index = dictionary.get(key);
+            if (index == null) {
+                index = strings.size();
+                dictionary.put(key, index);
+                strings.add(key);
+            }
+            writeVarLong(index + 1);
+        }
+
+        /**
+         * Write a string as its length + 1 and its UTF-8 bytes. Null has length 0.
+         */
+        void writeText(String text) {
+            if (text == null) {
+                writeVarLong(0);
+                return;
+            }
+
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length + 1);
+            write(bytes, 0, bytes.length);
+        }
+
+        void writeDouble(double value) {
+            long bits = Double.doubleToRawLongBits(value);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                write((int) (bits >>> shift));
+            }
+        }
+
+        void writeSignedVarLong(long value) {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        void writeVarLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+    }
+}
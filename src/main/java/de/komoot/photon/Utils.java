@@ -1,19 +1,19 @@
 package de.komoot.photon;
 
-import com.google.common.base.Joiner;
-import com.google.common.collect.HashMultimap;
-import com.google.common.collect.SetMultimap;
 import com.neovisionaries.i18n.CountryCode;
-import com.vividsolutions.jts.geom.Envelope;
 import de.komoot.photon.nominatim.model.AddressType;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentFactory;
 
 import java.io.IOException;
-import java.util.Collection;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * helper functions to create convert a photon document to XContentBuilder object / JSON
@@ -21,12 +21,77 @@ import java.util.Set;
  * @author christoph
  */
 public class Utils {
-    private static final Joiner commaJoiner = Joiner.on(", ").skipNulls();
+    private static final int MAX_CACHED_CLASSIFICATIONS = 10000;
+    private static final String NO_CLASSIFICATION = "";
+    /** Classification strings by key and value. Entries without classification are saved as NO_CLASSIFICATION. */
+    private static final ConcurrentMap<String, ConcurrentMap<String, String>> classificationCache = new ConcurrentHashMap<>();
+    private static final AtomicInteger classificationCacheSize = new AtomicInteger();
+    /** The keys of the localized name tags by language. */
+    private static final ConcurrentMap<String, String> nameKeys = new ConcurrentHashMap<>();
+
+    /**
+     * Name tags that are written in addition to the language names, together with
+     * the field name they are saved under.
+     */
+    private static final String[][] EXTRA_NAME_TAGS = {
+            {"alt_name", "alt"},
+            {"int_name", "int"},
+            {"loc_name", "loc"},
+            {"old_name", "old"},
+            {"reg_name", "reg"},
+            {"addr:housename", "housename"}
+    };
 
     public static XContentBuilder convert(PhotonDoc doc, String[] languages, String[] extraTags) throws IOException {
+        return write(XContentFactory.jsonBuilder(), doc, languages, extraTags);
+    }
+
+    /**
+     * Write the document as a complete object to the given builder, which may use any content type.
+     */
+    public static XContentBuilder write(XContentBuilder builder, PhotonDoc doc, String[] languages, String[] extraTags) throws IOException {
+        builder.startObject();
+        writeDocument(builder, doc, languages, extraTags);
+        writeAddress(builder, doc, languages);
+
+        return builder.endObject();
+    }
+
+    /**
+     * Write the document without address parts and context as an object to the given builder.
+     */
+    static XContentBuilder writeWithoutAddress(XContentBuilder builder, PhotonDoc doc, String[] languages, String[] extraTags) throws IOException {
+        builder.startObject();
+        writeDocument(builder, doc, languages, extraTags);
+
+        return builder.endObject();
+    }
+
+    /**
+     * Convert a document to JSON, taking the address part from the given cache.
+     *
+     * @param fragments Cache for the address parts. The languages of the cache are used for the
+     *                  whole document.
+     */
+    public static String convert(PhotonDoc doc, String[] extraTags, AddressFragmentCache fragments) throws IOException {
+        XContentBuilder builder = writeWithoutAddress(XContentFactory.jsonBuilder(), doc, fragments.getLanguages(), extraTags);
+
+        return mergeObjects(builder.string(), fragments.get(doc));
+    }
+
+    /**
+     * Create a JSON object with the address parts and the context of the document.
+     */
+    static String convertAddress(PhotonDoc doc, String[] languages) throws IOException {
+        XContentBuilder builder = XContentFactory.jsonBuilder().startObject();
+        writeAddress(builder, doc, languages);
+
+        return builder.endObject().string();
+    }
+
+    private static void writeDocument(XContentBuilder builder, PhotonDoc doc, String[] languages, String[] extraTags) throws IOException {
         final AddressType atype = doc.getAddressType();
-        XContentBuilder builder = XContentFactory.jsonBuilder().startObject()
-                .field(Constants.OSM_ID, doc.getOsmId())
+        builder.field(Constants.OSM_ID, doc.getOsmId())
                 .field(Constants.OSM_TYPE, doc.getOsmType())
                 .field(Constants.OSM_KEY, doc.getTagKey())
                 .field(Constants.OSM_VALUE, doc.getTagValue())
@@ -38,10 +103,10 @@ public class Utils {
             builder.field(Constants.CLASSIFICATION, classification);
         }
 
-        if (doc.getCentroid() != null) {
+        if (doc.hasCentroid()) {
             builder.startObject("coordinate")
-                    .field("lat", doc.getCentroid().getY())
-                    .field("lon", doc.getCentroid().getX())
+                    .field("lat", doc.getCentroidLat())
+                    .field("lon", doc.getCentroidLon())
                     .endObject();
         }
 
@@ -49,25 +114,101 @@ public class Utils {
             builder.field("housenumber", doc.getHouseNumber());
         }
 
+        writeInterpolation(builder, doc.getInterpolation());
+
         if (doc.getPostcode() != null) {
             builder.field("postcode", doc.getPostcode());
         }
 
         writeName(builder, doc.getName(), languages);
-        for (Map.Entry<AddressType, Map<String, String>> entry : doc.getAddressParts().entrySet()) {
-            writeIntlNames(builder, entry.getValue(), entry.getKey().getName(), languages);
-        }
         CountryCode countryCode = doc.getCountryCode();
         if (countryCode != null)
             builder.field(Constants.COUNTRYCODE, countryCode.getAlpha2());
-        writeContext(builder, doc.getContext(), languages);
         writeExtraTags(builder, doc.getExtratags(), extraTags);
-        writeExtent(builder, doc.getBbox());
+        writeExtent(builder, doc);
+    }
 
-        builder.endObject();
+    private static void writeAddress(XContentBuilder builder, PhotonDoc doc, String[] languages) throws IOException {
+        for (Map.Entry<AddressType, Map<String, String>> entry : doc.getAddressParts().entrySet()) {
+            writeIntlNames(builder, entry.getValue(), entry.getKey().getName(), languages);
+        }
+        writeContext(builder, doc.getContext(), languages);
+    }
+
+    /**
+     * Merge two JSON objects with distinct fields.
+     */
+    private static String mergeObjects(String first, String second) {
+        if (second.length() <= 2) {
+            return first;
+        }
+        if (first.length() <= 2) {
+            return second;
+        }
+
+        // Drop the closing brace of the first and the opening brace of the second object.
+        return first.substring(0, first.length() - 1) + "," + second.substring(1);
+    }
+
+    /**
+     * Convert the part of a document that is shared between all its house number variants.
+     *
+     * @return JSON of the document without house number and coordinate.
+     */
+    public static String convertShared(PhotonDoc base, String[] languages, String[] extraTags) throws IOException {
+        PhotonDoc shared = new PhotonDoc(base).houseNumber(null).centroid(null);
+        return convert(shared, languages, extraTags).string();
+    }
+
+    /**
+     * Same as {@link #convertShared(PhotonDoc, String[], String[])} but takes the address part from the cache.
+     */
+    public static String convertShared(PhotonDoc base, String[] extraTags, AddressFragmentCache fragments) throws IOException {
+        PhotonDoc shared = new PhotonDoc(base).houseNumber(null).centroid(null);
+        return convert(shared, extraTags, fragments);
+    }
+
+    /**
+     * Create the JSON for a single house number variant from the output of
+     * {@link #convertShared(PhotonDoc, String[], String[])}.
+     *
+     * @param lon Longitude of the house number, NaN if unknown.
+     * @param lat Latitude of the house number, NaN if unknown.
+     */
+    public static String convertVariant(String sharedJson, String houseNumber, double lon, double lat) throws IOException {
+        return mergeObjects(writeVariant(XContentFactory.jsonBuilder(), houseNumber, lon, lat).string(), sharedJson);
+    }
 
+    /**
+     * Write an object with the fields that differ between the house number variants of a document.
+     */
+    static XContentBuilder writeVariant(XContentBuilder builder, String houseNumber, double lon, double lat) throws IOException {
+        builder.startObject();
+        if (!Double.isNaN(lon)) {
+            builder.startObject("coordinate")
+                    .field("lat", lat)
+                    .field("lon", lon)
+                    .endObject();
+        }
 
-        return builder;
+        return builder.field("housenumber", houseNumber).endObject();
+    }
+
+    private static void writeInterpolation(XContentBuilder builder, InterpolationLine line) throws IOException {
+        if (line == null) return;
+
+        builder.startObject(InterpolationLine.FIELD)
+                .field("first", line.getFirst())
+                .field("last", line.getLast())
+                .field("start", line.getStart())
+                .field("end", line.getEnd())
+                .field("step", line.getStep())
+                .startArray("line");
+        double[] coordinates = line.getCoordinates();
+        for (int i = 0; i < coordinates.length; i += 2) {
+            builder.startArray().value(coordinates[i]).value(coordinates[i + 1]).endArray();
+        }
+        builder.endArray().endObject();
     }
 
     private static void writeExtraTags(XContentBuilder builder, Map<String, String> docTags, String[] extraTags) throws IOException {
@@ -89,18 +230,18 @@ public class Utils {
         }
     }
 
-    private static void writeExtent(XContentBuilder builder, Envelope bbox) throws IOException {
-        if (bbox == null) return;
+    private static void writeExtent(XContentBuilder builder, PhotonDoc doc) throws IOException {
+        if (!doc.hasBbox()) return;
 
-        if (bbox.getArea() == 0.) return;
+        if (doc.getBboxMaxLon() == doc.getBboxMinLon() || doc.getBboxMaxLat() == doc.getBboxMinLat()) return;
 
         // http://www.elasticsearch.org/guide/en/elasticsearch/reference/current/mapping-geo-shape-type.html#_envelope
         builder.startObject("extent");
         builder.field("type", "envelope");
 
         builder.startArray("coordinates");
-        builder.startArray().value(bbox.getMinX()).value(bbox.getMaxY()).endArray();
-        builder.startArray().value(bbox.getMaxX()).value(bbox.getMinY()).endArray();
+        builder.startArray().value(doc.getBboxMinLon()).value(doc.getBboxMaxLat()).endArray();
+        builder.startArray().value(doc.getBboxMaxLon()).value(doc.getBboxMinLat()).endArray();
 
         builder.endArray();
         builder.endObject();
@@ -109,25 +250,34 @@ public class Utils {
     private static void writeName(XContentBuilder builder, Map<String, String> name, String[] languages) throws IOException {
         Map<String, String> fNames = filterNames(name, languages);
 
-        if (name.get("alt_name") != null)
-            fNames.put("alt", name.get("alt_name"));
-
-        if (name.get("int_name") != null)
-            fNames.put("int", name.get("int_name"));
-
-        if (name.get("loc_name") != null)
-            fNames.put("loc", name.get("loc_name"));
+        for (String[] tag : EXTRA_NAME_TAGS) {
+            if (name.get(tag[0]) != null)
+                fNames.put(tag[1], name.get(tag[0]));
+        }
 
-        if (name.get("old_name") != null)
-            fNames.put("old", name.get("old_name"));
+        write(builder, fNames, "name");
+    }
 
-        if (name.get("reg_name") != null)
-            fNames.put("reg", name.get("reg_name"));
+    /**
+     * Get the keys of a name tag list that are used in a document's name.
+     *
+     * @param languages Languages to include.
+     * @param withExtraNames When false, return only the keys used for address names.
+     */
+    public static List<String> getNameKeys(String[] languages, boolean withExtraNames) {
+        List<String> keys = new ArrayList<>();
+        keys.add("name");
+        for (String language : languages) {
+            keys.add("name:" + language);
+        }
 
-        if (name.get("addr:housename") != null)
-            fNames.put("housename", name.get("addr:housename"));
+        if (withExtraNames) {
+            for (String[] tag : EXTRA_NAME_TAGS) {
+                keys.add(tag[0]);
+            }
+        }
 
-        write(builder, fNames, "name");
+        return keys;
     }
 
     private static void write(XContentBuilder builder, Map<String, String> fNames, String name) throws IOException {
@@ -141,30 +291,65 @@ public class Utils {
     }
 
     protected static void writeContext(XContentBuilder builder, Set<Map<String, String>> contexts, String[] languages) throws IOException {
-        final SetMultimap<String, String> multimap = HashMultimap.create();
+        if (contexts.isEmpty()) return;
 
-        for (Map<String, String> context : contexts) {
-            if (context.get("name") != null) {
-                multimap.put("default", context.get("name"));
-            }
+        boolean started = writeContextNames(builder, contexts, "name", "default", false);
+        for (String language : languages) {
+            started = writeContextNames(builder, contexts, nameKey(language), language, started);
         }
 
-        for (String language : languages) {
-            for (Map<String, String> context : contexts) {
-                if (context.get("name:" + language) != null) {
-                    multimap.put(language, context.get("name:" + language));
+        if (started) {
+            builder.endObject();
+        }
+    }
+
+    /**
+     * Write the distinct names with the given key from all contexts as a comma-separated list.
+     *
+     * @return True, if the context object has been started.
+     */
+    private static boolean writeContextNames(XContentBuilder builder, Set<Map<String, String>> contexts,
+                                             String nameKey, String field, boolean started) throws IOException {
+        StringBuilder names = null;
+        for (Map<String, String> context : contexts) {
+            String name = context.get(nameKey);
+            if (name != null && !hasNameBefore(contexts, context, nameKey, name)) {
+                if (names == null) {
+                    names = new StringBuilder(name);
+                } else {
+                    names.append(", ").append(name);
                 }
             }
         }
 
-        final Map<String, Collection<String>> map = multimap.asMap();
-        if (!multimap.isEmpty()) {
+        if (names == null) {
+            return started;
+        }
+
+        if (!started) {
             builder.startObject("context");
-            for (Map.Entry<String, Collection<String>> entry : map.entrySet()) {
-                builder.field(entry.getKey(), commaJoiner.join(entry.getValue()));
+        }
+        builder.field(field, names.toString());
+
+        return true;
+    }
+
+    private static boolean hasNameBefore(Set<Map<String, String>> contexts, Map<String, String> current,
+                                         String nameKey, String name) {
+        for (Map<String, String> context : contexts) {
+            if (context == current) {
+                return false;
+            }
+            if (name.equals(context.get(nameKey))) {
+                return true;
             }
-            builder.endObject();
         }
+
+        return false;
+    }
+
+    private static String nameKey(String language) {
+        return nameKeys.computeIfAbsent(language, l -> "name:" + l);
     }
 
     private static void writeIntlNames(XContentBuilder builder, Map<String, String> names, String name, String[] languages) throws IOException {
@@ -184,8 +369,9 @@ public class Utils {
         }
 
         for (String language : languages) {
-            if (names.get("name:" + language) != null) {
-                filteredNames.put(language, names.get("name:" + language));
+            String value = names.get(nameKey(language));
+            if (value != null) {
+                filteredNames.put(language, value);
             }
         }
 
@@ -206,7 +392,34 @@ public class Utils {
         return sb.toString();
     }
 
+    /**
+     * Get the classification term for a key/value pair. The results are cached.
+     *
+     * @return The term or null, if the pair has no classification.
+     */
     public static String buildClassificationString(String key, String value) {
+        if (key == null || value == null) {
+            return computeClassificationString(key, value);
+        }
+
+        ConcurrentMap<String, String> values = classificationCache.get(key);
+        String classification = values == null ? null : values.get(value);
+        if (classification == null) {
+            classification = computeClassificationString(key, value);
+            if (classification == null) {
+                classification = NO_CLASSIFICATION;
+            }
+            if (classificationCacheSize.get() < MAX_CACHED_CLASSIFICATIONS
+                    && classificationCache.computeIfAbsent(key, k -> new ConcurrentHashMap<>())
+                                          .putIfAbsent(value, classification) == null) {
+                classificationCacheSize.incrementAndGet();
+            }
+        }
+
+        return classification == NO_CLASSIFICATION ? null : classification;
+    }
+
+    private static String computeClassificationString(String key, String value) {
         if ("place".equals(key) || "building".equals(key)) {
             return null;
         }
@@ -216,7 +429,8 @@ public class Utils {
             return null;
         }
 
-        for (char c : value.toCharArray()) {
+        for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
             if (!(c == '_'
                   || ((c >= 'a') && (c <= 'z'))
                   || ((c >= 'A') && (c <= 'Z'))
@@ -225,6 +439,20 @@ public class Utils {
             }
         }
 
-        return "tpfld" + value.replaceAll("_", "").toLowerCase() + "clsfld" + key.replaceAll("_", "").toLowerCase();
+        StringBuilder sb = new StringBuilder(11 + value.length() + key.length()).append("tpfld");
+        appendClassificationPart(sb, value);
+        sb.append("clsfld");
+        appendClassificationPart(sb, key);
+
+        return sb.toString();
+    }
+
+    private static void appendClassificationPart(StringBuilder sb, String part) {
+        for (int i = 0; i < part.length(); ++i) {
+            char c = part.charAt(i);
+            if (c != '_') {
+                sb.append(Character.toLowerCase(c));
+            }
+        }
     }
 }
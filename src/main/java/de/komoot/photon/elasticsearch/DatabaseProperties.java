@@ -32,8 +32,10 @@ public class DatabaseProperties {
     private static final String BASE_FIELD = "document_properties";
     private static final String FIELD_VERSION = "database_version";
     private static final String FIELD_LANGUAGES = "indexed_languages";
+    private static final String FIELD_INTERPOLATION_LINES = "interpolation_lines";
 
     private String[] languages = null;
+    private boolean interpolationLines = false;
 
     /**
      * Return the list of languages for which the database is configured.
@@ -59,6 +61,18 @@ public class DatabaseProperties {
         return this;
     }
 
+    /**
+     * @return True, if address interpolations are saved as one document per line.
+     */
+    public boolean isInterpolationLines() {
+        return interpolationLines;
+    }
+
+    public DatabaseProperties setInterpolationLines(boolean interpolationLines) {
+        this.interpolationLines = interpolationLines;
+        return this;
+    }
+
     /**
      * Set language list to the intersection between the existing list and the given list.
      *
@@ -97,12 +111,20 @@ public class DatabaseProperties {
      * as currently defined in DATABASE_VERSION.
      */
     public void saveToDatabase(Client client) throws IOException  {
+        saveToDatabase(client, PhotonIndex.NAME);
+    }
+
+    /**
+     * Save the global properties to the given index, for example an index that is still being built.
+     */
+    public void saveToDatabase(Client client, String indexName) throws IOException  {
         final XContentBuilder builder = XContentFactory.jsonBuilder().startObject().startObject(BASE_FIELD)
                         .field(FIELD_VERSION, DATABASE_VERSION)
                         .field(FIELD_LANGUAGES, String.join(",", languages))
+                        .field(FIELD_INTERPOLATION_LINES, String.valueOf(interpolationLines))
                         .endObject().endObject();
 
-        client.prepareIndex(PhotonIndex.NAME, PhotonIndex.TYPE).
+        client.prepareIndex(indexName, PhotonIndex.TYPE).
                     setSource(builder).setId(PROPERTY_DOCUMENT_ID).execute().actionGet();
     }
 
@@ -116,7 +138,14 @@ public class DatabaseProperties {
      * database version will then fail.
      */
     public void loadFromDatabase(Client client) {
-        GetResponse response = client.prepareGet(PhotonIndex.NAME, PhotonIndex.TYPE, PROPERTY_DOCUMENT_ID).execute().actionGet();
+        loadFromDatabase(client, PhotonIndex.NAME);
+    }
+
+    /**
+     * Load the global properties from the given index, for example an index that is still being built.
+     */
+    public void loadFromDatabase(Client client, String indexName) {
+        GetResponse response = client.prepareGet(indexName, PhotonIndex.TYPE, PROPERTY_DOCUMENT_ID).execute().actionGet();
 
         // We are currently at the database version where versioning was introduced.
         if (!response.isExists()) {
@@ -141,5 +170,7 @@ public class DatabaseProperties {
         } else {
             languages = langString.split(",");
         }
+
+        interpolationLines = Boolean.parseBoolean(properties.get(FIELD_INTERPOLATION_LINES));
     }
 }
@@ -0,0 +1,92 @@
+package de.komoot.photon.elasticsearch;
+
+import de.komoot.photon.CheckpointStore;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Saves the import checkpoints in a separate document in the Photon index,
+ * next to the {@link DatabaseProperties}.
+ */
+@Slf4j
+public class ImportCheckpoints implements CheckpointStore {
+    public static final String CHECKPOINT_DOCUMENT_ID = "IMPORT_CHECKPOINT";
+
+    private static final String BASE_FIELD = "import_checkpoint";
+
+    private final Client client;
+    private final String indexName;
+
+    public ImportCheckpoints(Client client) {
+        this(client, PhotonIndex.NAME);
+    }
+
+    /**
+     * @param indexName Index the import writes to.
+     */
+    public ImportCheckpoints(Client client, String indexName) {
+        this.client = client;
+        this.indexName = indexName;
+    }
+
+    @Override
+    public Map<String, Long> load() {
+        GetResponse response = client.prepareGet(indexName, PhotonIndex.TYPE, CHECKPOINT_DOCUMENT_ID).execute().actionGet();
+
+        Map<String, Long> checkpoint = new HashMap<>();
+        if (!response.isExists()) {
+            return checkpoint;
+        }
+
+        Map<String, Object> tables = (Map<String, Object>) response.getSource().get(BASE_FIELD);
+        if (tables == null) {
+            throw new RuntimeException("Found import checkpoint but no '" + BASE_FIELD + "' field. Database corrupt?");
+        }
+
+        for (Map.Entry<String, Object> entry : tables.entrySet()) {
+            checkpoint.put(entry.getKey(), ((Number) entry.getValue()).longValue());
+        }
+
+        return checkpoint;
+    }
+
+    @Override
+    public void save(Map<String, Long> checkpoint) {
+        try {
+            XContentBuilder builder = XContentFactory.jsonBuilder().startObject().startObject(BASE_FIELD);
+            for (Map.Entry<String, Long> entry : checkpoint.entrySet()) {
+                builder.field(entry.getKey(), entry.getValue());
+            }
+            builder.endObject().endObject();
+
+            // The translog is asynchronous during import. Flush the index, so that the
+            // documents covered by the checkpoint survive a crash.
+            client.admin().indices().prepareFlush(indexName).setWaitIfOngoing(true).execute().actionGet();
+
+            client.prepareIndex(indexName, PhotonIndex.TYPE)
+                    .setSource(builder).setId(CHECKPOINT_DOCUMENT_ID).execute().actionGet();
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot save import checkpoint", e);
+        }
+    }
+
+    /**
+     * Check for the checkpoint of an import that has not been completed.
+     * Completed imports remove their checkpoint.
+     */
+    public boolean isUnfinished() {
+        return client.prepareGet(indexName, PhotonIndex.TYPE, CHECKPOINT_DOCUMENT_ID).execute().actionGet().isExists();
+    }
+
+    @Override
+    public void clear() {
+        client.prepareDelete(indexName, PhotonIndex.TYPE, CHECKPOINT_DOCUMENT_ID).execute().actionGet();
+    }
+}
@@ -1,63 +1,247 @@
 package de.komoot.photon.elasticsearch;
 
+import de.komoot.photon.DocumentEncoder;
+import de.komoot.photon.HousenumberVariants;
+import de.komoot.photon.ImportMetrics;
 import de.komoot.photon.PhotonDoc;
-import de.komoot.photon.Utils;
 import lombok.extern.slf4j.Slf4j;
-import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BackoffPolicy;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentType;
 
 import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * elasticsearch importer
  *
+ * Documents are converted in the thread calling {@link #add(PhotonDoc)}, so that
+ * conversion can happen in parallel. The bulk requests are sent asynchronously,
+ * the calling thread only blocks when there are too many requests in flight.
+ * Bulk requests that are rejected by elasticsearch because its queues are full
+ * are retried with exponential backoff.
+ *
  * @author felix
  */
 @Slf4j
 public class Importer implements de.komoot.photon.Importer {
-    private int documentCount = 0;
+    public static final int DEFAULT_BULK_ACTIONS = 10000;
+    public static final long DEFAULT_BULK_SIZE = 20 * 1024 * 1024;
+    public static final int DEFAULT_CONCURRENT_REQUESTS = 1;
+
+    private static final TimeValue RETRY_INITIAL_DELAY = TimeValue.timeValueMillis(100);
+    private static final int RETRY_MAX_TRIES = 10;
 
-    private final Client esClient;
-    private BulkRequestBuilder bulkRequest;
+    private final BulkProcessor bulkProcessor;
     private final String[] languages;
     private final String[] extraTags;
+    private DocumentEncoder encoder;
+    private String indexName = PhotonIndex.NAME;
+
+    private final Object pendingLock = new Object();
+    private int pendingBulks = 0;
+    private final AtomicLong failedDocuments = new AtomicLong();
+    private final Map<Long, Long> bulkStartNanos = new ConcurrentHashMap<>();
+    private ImportMetrics metrics = new ImportMetrics();
 
     public Importer(Client esClient, String[] languages, String extraTags) {
-        this.esClient = esClient;
-        this.bulkRequest = esClient.prepareBulk();
+        this(esClient, languages, extraTags, DEFAULT_BULK_ACTIONS, DEFAULT_BULK_SIZE, DEFAULT_CONCURRENT_REQUESTS);
+    }
+
+    /**
+     * Create a new importer with custom settings for the bulk requests.
+     *
+     * @param bulkActions        Maximum number of documents in a single bulk request. -1 for no limit.
+     * @param bulkSize           Maximum size of a single bulk request in bytes. -1 for no limit.
+     * @param concurrentRequests Number of bulk requests that may be in flight at the same time.
+     */
+    public Importer(Client esClient, String[] languages, String extraTags,
+                    int bulkActions, long bulkSize, int concurrentRequests) {
         this.languages = languages;
         this.extraTags = extraTags.split(",");
+        this.encoder = new DocumentEncoder(XContentType.JSON, languages, this.extraTags);
+        this.bulkProcessor = BulkProcessor.builder(esClient, new BulkListener())
+                .setBulkActions(bulkActions)
+                .setBulkSize(new ByteSizeValue(bulkSize))
+                .setConcurrentRequests(Math.max(1, concurrentRequests))
+                .setBackoffPolicy(retryPolicy())
+                .build();
+    }
+
+    /**
+     * Get the policy for retrying bulk requests that elasticsearch rejected because its queues were full.
+     */
+    static BackoffPolicy retryPolicy() {
+        return BackoffPolicy.exponentialBackoff(RETRY_INITIAL_DELAY, RETRY_MAX_TRIES);
+    }
+
+    /**
+     * Set the metrics to report serialization and bulk request times to.
+     */
+    public void setMetrics(ImportMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Set the format the documents are sent in. Must be called before the first document is added.
+     *
+     * @param contentType JSON or one of the binary formats SMILE and CBOR.
+     */
+    public void setFormat(XContentType contentType) {
+        this.encoder = new DocumentEncoder(contentType, languages, extraTags);
+    }
+
+    /**
+     * Set the index the documents are written to. Must be called before the first document is added.
+     */
+    public void setIndexName(String indexName) {
+        this.indexName = indexName;
     }
 
     @Override
     public void add(PhotonDoc doc) {
+        IndexRequest request;
+        long startNanos = System.nanoTime();
         try {
-            this.bulkRequest.add(this.esClient.prepareIndex(PhotonIndex.NAME, PhotonIndex.TYPE).
-                    setSource(Utils.convert(doc, languages, extraTags)).setId(doc.getUid()));
+            request = new IndexRequest(indexName, PhotonIndex.TYPE, doc.getUid())
+                    .source(encoder.encode(doc), encoder.getContentType());
         } catch (IOException e) {
             log.error("could not bulk add document " + doc.getUid(), e);
             return;
+        } finally {
+            metrics.addTime(ImportMetrics.Stage.CONVERT, startNanos);
         }
-        this.documentCount += 1;
-        if (this.documentCount > 0 && this.documentCount % 10000 == 0) {
-            this.saveDocuments();
-        }
+
+        bulkProcessor.add(request);
+    }
+
+    /**
+     * Add a document that has already been encoded, for example one read from a dump.
+     *
+     * @param id Id of the document or null to let elasticsearch create one.
+     */
+    public void add(String id, BytesReference source, XContentType contentType) {
+        bulkProcessor.add(new IndexRequest(indexName, PhotonIndex.TYPE, id).source(source, contentType));
     }
 
-    private void saveDocuments() {
-        if (this.documentCount < 1) return;
+    /**
+     * Add the documents for all house numbers of the base document.
+     * The shared part of the documents is only converted once.
+     */
+    @Override
+    public void add(PhotonDoc base, HousenumberVariants variants) {
+        long startNanos = System.nanoTime();
+        IndexRequest[] requests = new IndexRequest[variants.size()];
+        try {
+            BytesReference[] sources = encoder.encode(base, variants);
+            for (int i = 0; i < requests.length; ++i) {
+                requests[i] = new IndexRequest(indexName, PhotonIndex.TYPE, base.getUid(variants.getHousenumber(i)))
+                        .source(sources[i], encoder.getContentType());
+            }
+        } catch (IOException e) {
+            log.error("could not bulk add documents for " + base.getUid(), e);
+            return;
+        } finally {
+            metrics.addTime(ImportMetrics.Stage.CONVERT, startNanos);
+        }
 
-        BulkResponse bulkResponse = bulkRequest.execute().actionGet();
-        if (bulkResponse.hasFailures()) {
-            log.error("error while bulk import:" + bulkResponse.buildFailureMessage());
+        for (IndexRequest request : requests) {
+            bulkProcessor.add(request);
         }
-        this.bulkRequest = this.esClient.prepareBulk();
+    }
+
+    @Override
+    public long getFailedDocuments() {
+        return failedDocuments.get();
     }
 
     @Override
     public void finish() {
-        this.saveDocuments();
-        this.documentCount = 0;
+        flush();
+
+        if (failedDocuments.get() > 0) {
+            log.error(String.format("%d documents could not be imported.", failedDocuments.get()));
+        }
+    }
+
+    /**
+     * Send out all outstanding documents and wait until all bulk requests are done.
+     */
+    @Override
+    public void flush() {
+        bulkProcessor.flush();
+
+        synchronized (pendingLock) {
+            while (pendingBulks > 0) {
+                try {
+                    pendingLock.wait();
+                } catch (InterruptedException e) {
+                    log.warn("Interrupted while waiting for bulk requests to finish.");
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void bulkDone() {
+        synchronized (pendingLock) {
+            --pendingBulks;
+            pendingLock.notifyAll();
+        }
+    }
+
+    private class BulkListener implements BulkProcessor.Listener {
+        @Override
+        public void beforeBulk(long executionId, BulkRequest request) {
+            bulkStartNanos.put(executionId, System.nanoTime());
+            synchronized (pendingLock) {
+                ++pendingBulks;
+            }
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+            recordBulkTime(executionId);
+            metrics.addNanos(ImportMetrics.Stage.ES_TOOK, response.getTookInMillis() * 1000000);
+            if (response.hasFailures()) {
+                long failed = 0;
+                for (BulkItemResponse item : response) {
+                    if (item.isFailed()) {
+                        ++failed;
+                    }
+                }
+                failedDocuments.addAndGet(failed);
+                metrics.countFailedDocuments(failed);
+                log.error("error while bulk import:" + response.buildFailureMessage());
+            }
+            bulkDone();
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+            recordBulkTime(executionId);
+            failedDocuments.addAndGet(request.numberOfActions());
+            metrics.countFailedDocuments(request.numberOfActions());
+            log.error("bulk import of " + request.numberOfActions() + " documents failed", failure);
+            bulkDone();
+        }
+
+        private void recordBulkTime(long executionId) {
+            Long startNanos = bulkStartNanos.remove(executionId);
+            if (startNanos != null) {
+                metrics.addTime(ImportMetrics.Stage.BULK, startNanos);
+            }
+        }
     }
 }
@@ -8,4 +8,6 @@ public class PhotonIndex {
 
     public static final String NAME = "photon";
     public static final String TYPE = "place";
+    /** Alias of the previous generations of the index that are kept for a rollback. */
+    public static final String PREVIOUS_ALIAS = "photon_previous";
 }
@@ -0,0 +1,232 @@
+package de.komoot.photon.elasticsearch;
+
+import de.komoot.photon.ImportMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.slice.SliceBuilder;
+import org.elasticsearch.search.sort.SortOrder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Copies the documents of an existing photon index into a new index, without going back to nominatim.
+ *
+ * The source index is read with sliced scrolls, one thread per slice. The documents are
+ * adapted to the languages and extra tags of the new index and written with an {@link Importer}.
+ * Languages and extra tags can only be removed this way, because the source documents only
+ * contain the ones of the old index.
+ */
+@Slf4j
+public class Reindexer {
+    private static final TimeValue SCROLL_KEEP_ALIVE = TimeValue.timeValueMinutes(5);
+
+    /** Fields with localized names. */
+    private static final String[] NAME_FIELDS = {
+            "name", "street", "locality", "district", "city", "county", "state", "country", "context"
+    };
+    /** Keys of name fields that do not depend on the languages. */
+    private static final String[] LANGUAGE_INDEPENDENT_KEYS = {
+            "default", "alt", "int", "loc", "old", "reg", "housename"
+    };
+    private static final String EXTRA_FIELD = "extra";
+
+    private final Client client;
+    private final String sourceIndex;
+    private final Importer importer;
+    private final Set<String> nameKeys;
+    private final Set<String> extraTags;
+    private int slices = 1;
+    private int batchSize = 1000;
+    private ImportMetrics metrics = new ImportMetrics();
+
+    /**
+     * @param importer  Importer that writes to the new index.
+     * @param languages Languages of the new index.
+     * @param extraTags Extra tags of the new index. Null keeps the extra tags of the source documents.
+     */
+    public Reindexer(Client client, String sourceIndex, Importer importer, String[] languages, String[] extraTags) {
+        this.client = client;
+        this.sourceIndex = sourceIndex;
+        this.importer = importer;
+        this.nameKeys = new HashSet<>(Arrays.asList(LANGUAGE_INDEPENDENT_KEYS));
+        this.nameKeys.addAll(Arrays.asList(languages));
+        this.extraTags = extraTags == null ? null : new HashSet<>(Arrays.asList(extraTags));
+    }
+
+    /**
+     * Set the number of slices that are read in parallel.
+     */
+    public void setSlices(int slices) {
+        this.slices = Math.max(1, slices);
+    }
+
+    /**
+     * Set the number of documents fetched with each scroll request.
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setMetrics(ImportMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Copy all documents and wait until they have been written.
+     *
+     * @return The number of documents copied.
+     */
+    public long reindex() {
+        log.info(String.format("reindexing %s with %d slices", sourceIndex, slices));
+        metrics.start();
+
+        ExecutorService executor = Executors.newFixedThreadPool(slices);
+        long documents = 0;
+        try {
+            List<Future<Long>> tasks = new ArrayList<>();
+            for (int i = 0; i < slices; ++i) {
+                final int slice = i;
+                tasks.add(executor.submit(() -> copySlice(slice)));
+            }
+            for (Future<Long> task : tasks) {
+                documents += task.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while reindexing", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Error while reindexing", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        importer.finish();
+        metrics.stop();
+
+        return documents;
+    }
+
+    private long copySlice(int slice) throws IOException {
+        SearchRequestBuilder request = client.prepareSearch(sourceIndex)
+                .setTypes(PhotonIndex.TYPE)
+                .setQuery(QueryBuilders.matchAllQuery())
+                .addSort("_doc", SortOrder.ASC)
+                .setScroll(SCROLL_KEEP_ALIVE)
+                .setSize(batchSize);
+        if (slices > 1) {
+            request.slice(new SliceBuilder(slice, slices));
+        }
+
+        long documents = 0;
+        SearchResponse response = request.execute().actionGet();
+        try {
+            while (response.getHits().getHits().length > 0) {
+                for (SearchHit hit : response.getHits().getHits()) {
+                    if (DatabaseProperties.PROPERTY_DOCUMENT_ID.equals(hit.getId())
+                            || ImportCheckpoints.CHECKPOINT_DOCUMENT_ID.equals(hit.getId())) {
+                        // Not a place. The new index has its own properties.
+                        continue;
+                    }
+
+                    metrics.countRow();
+                    BytesReference source = hit.getSourceRef();
+                    Map<String, Object> document = hit.getSourceAsMap();
+                    Map<String, Object> rebuilt = rebuild(document);
+                    if (rebuilt == document) {
+                        // Copy unchanged documents as they are, in whatever format they were imported.
+                        importer.add(hit.getId(), source, XContentFactory.xContentType(source));
+                    } else {
+                        importer.add(hit.getId(), XContentFactory.jsonBuilder().map(rebuilt).bytes(), XContentType.JSON);
+                    }
+                    metrics.countDocuments(1);
+                    ++documents;
+                }
+
+                response = client.prepareSearchScroll(response.getScrollId())
+                        .setScroll(SCROLL_KEEP_ALIVE).execute().actionGet();
+            }
+        } finally {
+            client.prepareClearScroll().addScrollId(response.getScrollId()).execute().actionGet();
+        }
+
+        return documents;
+    }
+
+    /**
+     * Remove names in other languages and extra tags that are not configured.
+     *
+     * @return The given document, if nothing was removed, otherwise a changed copy.
+     */
+    Map<String, Object> rebuild(Map<String, Object> document) {
+        Map<String, Object> rebuilt = document;
+
+        for (String field : NAME_FIELDS) {
+            rebuilt = filterField(document, rebuilt, field, nameKeys);
+        }
+
+        if (extraTags == null) {
+            return rebuilt;
+        }
+
+        return filterField(document, rebuilt, EXTRA_FIELD, extraTags);
+    }
+
+    private static Map<String, Object> filterField(Map<String, Object> document, Map<String, Object> rebuilt,
+                                                   String field, Set<String> keys) {
+        Map<String, Object> filtered = filterKeys(document.get(field), keys);
+        if (filtered == null) {
+            return rebuilt;
+        }
+
+        if (rebuilt == document) {
+            rebuilt = new HashMap<>(document);
+        }
+        if (filtered.isEmpty()) {
+            rebuilt.remove(field);
+        } else {
+            rebuilt.put(field, filtered);
+        }
+        return rebuilt;
+    }
+
+    /**
+     * @return The object with only the given keys or null if the object is not a map or has no other keys.
+     */
+    private static Map<String, Object> filterKeys(Object value, Set<String> keys) {
+        if (!(value instanceof Map)) {
+            return null;
+        }
+
+        Map<String, Object> map = (Map<String, Object>) value;
+        if (keys.containsAll(map.keySet())) {
+            return null;
+        }
+
+        Map<String, Object> filtered = new HashMap<>();
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            if (keys.contains(entry.getKey())) {
+                filtered.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return filtered;
+    }
+}
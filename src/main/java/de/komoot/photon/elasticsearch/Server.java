@@ -2,6 +2,9 @@ package de.komoot.photon.elasticsearch;
 
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.SystemUtils;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequestBuilder;
+import org.elasticsearch.action.admin.indices.alias.get.GetAliasesResponse;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.client.transport.TransportClient;
 import org.elasticsearch.common.settings.Settings;
@@ -21,10 +24,18 @@ import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+import java.util.TimeZone;
 
 /**
  * Helper class to start/stop elasticsearch node and get elasticsearch clients
@@ -33,6 +44,14 @@ import java.util.List;
  */
 @Slf4j
 public class Server {
+    /**
+     * Index settings used while searching. These are the elasticsearch defaults,
+     * which the photon index is created with.
+     */
+    private static final String SERVING_REFRESH_INTERVAL = "1s";
+    private static final int SERVING_REPLICAS = 1;
+    private static final String SERVING_TRANSLOG_DURABILITY = "request";
+
     private Node esNode;
 
     private Client esClient;
@@ -172,6 +191,168 @@ public class Server {
         return dbProperties;
     }
 
+    /**
+     * Create an index with the current settings and mappings under the given name,
+     * without touching the photon index.
+     *
+     * @param synonymFile File with synonyms and classification terms or null.
+     */
+    public void createIndex(String indexName, String[] languages, String synonymFile) throws IOException {
+        loadIndexSettings().setSynonymFile(synonymFile).createIndex(getClient(), indexName);
+
+        new IndexMapping().addLanguages(languages).putMapping(getClient(), indexName, PhotonIndex.TYPE);
+    }
+
+    /**
+     * Get the names of the indices behind the photon index name.
+     *
+     * @return The photon index itself, the indices the photon alias points to or
+     *         an empty array if there is no photon index.
+     */
+    public String[] getPhotonIndices() {
+        try {
+            return getClient().admin().indices().prepareGetIndex().setIndices(PhotonIndex.NAME)
+                    .execute().actionGet().getIndices();
+        } catch (IndexNotFoundException e) {
+            return new String[0];
+        }
+    }
+
+    /**
+     * Get a name for a new generation of the photon index, based on the current time.
+     *
+     * The names of generations sort in the order they were created.
+     */
+    public static String newIndexName() {
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMddHHmmss");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return PhotonIndex.NAME + "_" + format.format(new Date());
+    }
+
+    /**
+     * Create a new generation of the photon index for an import, next to the live index.
+     *
+     * @return The properties saved in the new index.
+     */
+    public DatabaseProperties createGeneration(String indexName, String[] languages, String synonymFile) throws IOException {
+        createIndex(indexName, languages, synonymFile);
+
+        DatabaseProperties dbProperties = new DatabaseProperties().setLanguages(languages);
+        dbProperties.saveToDatabase(getClient(), indexName);
+
+        return dbProperties;
+    }
+
+    /**
+     * Get the previous generations of the photon index that are kept for a rollback.
+     *
+     * @return The index names, newest first.
+     */
+    public List<String> getPreviousIndices() {
+        GetAliasesResponse response = getClient().admin().indices().prepareGetAliases(PhotonIndex.PREVIOUS_ALIAS)
+                .execute().actionGet();
+        List<String> indices = new ArrayList<>();
+        Iterator<String> it = response.getAliases().keysIt();
+        while (it.hasNext()) {
+            String index = it.next();
+            if (!response.getAliases().get(index).isEmpty()) {
+                indices.add(index);
+            }
+        }
+        indices.sort(Comparator.reverseOrder());
+
+        return indices;
+    }
+
+    /**
+     * Find the index of an interrupted import: the newest generation of the photon index
+     * that has neither been put live nor been retired and still holds an unfinished
+     * import checkpoint. Indices of other runs, like a failed reindex, are ignored.
+     *
+     * @return The name of the index or null if there is none.
+     */
+    public String findUnfinishedIndex() {
+        Set<String> finished = new HashSet<>(Arrays.asList(getPhotonIndices()));
+        finished.addAll(getPreviousIndices());
+
+        List<String> candidates = new ArrayList<>();
+        for (String index : getClient().admin().cluster().prepareState().execute().actionGet()
+                .getState().getMetaData().getConcreteAllIndices()) {
+            if (index.startsWith(PhotonIndex.NAME + "_") && !finished.contains(index)) {
+                candidates.add(index);
+            }
+        }
+        candidates.sort(Comparator.reverseOrder());
+
+        for (String index : candidates) {
+            if (new ImportCheckpoints(getClient(), index).isUnfinished()) {
+                return index;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Make the given index the photon index and delete the previous one.
+     */
+    public void swapIndex(String indexName) {
+        swapIndex(indexName, 0);
+    }
+
+    /**
+     * Make the given index the photon index.
+     *
+     * The photon name becomes an alias of the index. The alias is moved in a single
+     * request, so that searches see either the old or the new index. The previous
+     * index is kept as a generation for {@link #rollback(int)}, older generations
+     * beyond the given number are deleted. A photon index that is not an alias yet
+     * is always deleted, because its name is needed for the alias.
+     *
+     * @param keepGenerations Number of previous generations to keep.
+     */
+    public void swapIndex(String indexName, int keepGenerations) {
+        String[] previous = getPhotonIndices();
+        log.info("switching photon to index " + indexName);
+
+        IndicesAliasesRequestBuilder request = getClient().admin().indices().prepareAliases();
+        for (String index : previous) {
+            if (index.equals(PhotonIndex.NAME)) {
+                // A concrete index must be gone before its name can be used as an alias.
+                request.addAliasAction(IndicesAliasesRequest.AliasActions.removeIndex().index(index));
+            } else if (!index.equals(indexName)) {
+                request.removeAlias(index, PhotonIndex.NAME);
+                request.addAlias(index, PhotonIndex.PREVIOUS_ALIAS);
+            }
+        }
+        if (getPreviousIndices().contains(indexName)) {
+            request.removeAlias(indexName, PhotonIndex.PREVIOUS_ALIAS);
+        }
+        request.addAlias(indexName, PhotonIndex.NAME).execute().actionGet();
+
+        List<String> generations = getPreviousIndices();
+        for (String index : generations.subList(Math.min(Math.max(0, keepGenerations), generations.size()), generations.size())) {
+            log.info("deleting previous index " + index);
+            getClient().admin().indices().prepareDelete(index).execute().actionGet();
+        }
+    }
+
+    /**
+     * Put the newest previous generation of the photon index live again.
+     *
+     * The current index becomes a previous generation itself.
+     *
+     * @param keepGenerations Number of previous generations to keep.
+     */
+    public void rollback(int keepGenerations) {
+        List<String> generations = getPreviousIndices();
+        if (generations.isEmpty()) {
+            throw new RuntimeException("There is no previous photon index to roll back to.");
+        }
+
+        swapIndex(generations.get(0), Math.max(1, keepGenerations));
+    }
+
     public void updateIndexSettings(String synonymFile) throws IOException {
         // Load the settings from the database to make sure it is at the right
         // version. If the version is wrong, we should not be messing with the
@@ -190,13 +371,78 @@ public class Server {
         }
     }
 
+    /**
+     * Switch the photon index to settings that are optimized for bulk loading:
+     * no refresh, no replicas and asynchronous translog.
+     *
+     * Use {@link #restoreServingSettings(boolean)} when the import is done.
+     */
+    public void enableBulkLoadSettings() {
+        enableBulkLoadSettings(PhotonIndex.NAME);
+    }
+
+    /**
+     * Same as {@link #enableBulkLoadSettings()} for the given index.
+     */
+    public void enableBulkLoadSettings(String indexName) {
+        log.info("switching index to bulk load settings");
+        getClient().admin().indices().prepareUpdateSettings(indexName)
+                .setSettings(Settings.builder()
+                        .put("index.refresh_interval", "-1")
+                        .put("index.number_of_replicas", 0)
+                        .put("index.translog.durability", "async"))
+                .execute().actionGet();
+    }
+
+    /**
+     * Restore the settings for searching after a bulk import and optimize the index.
+     *
+     * The index is refreshed and force-merged into a single segment.
+     *
+     * @param readOnly If true, block further writes to the index. The index can then no longer be updated.
+     */
+    public void restoreServingSettings(boolean readOnly) {
+        restoreServingSettings(PhotonIndex.NAME, readOnly);
+    }
+
+    /**
+     * Same as {@link #restoreServingSettings(boolean)} for the given index.
+     */
+    public void restoreServingSettings(String indexName, boolean readOnly) {
+        log.info("restoring index settings for searching");
+        final Client client = getClient();
+        client.admin().indices().prepareUpdateSettings(indexName)
+                .setSettings(Settings.builder()
+                        .put("index.refresh_interval", SERVING_REFRESH_INTERVAL)
+                        .put("index.number_of_replicas", SERVING_REPLICAS)
+                        .put("index.translog.durability", SERVING_TRANSLOG_DURABILITY))
+                .execute().actionGet();
+
+        client.admin().indices().prepareRefresh(indexName).execute().actionGet();
+
+        log.info("force-merging index, this might take some time");
+        client.admin().indices().prepareForceMerge(indexName).setMaxNumSegments(1).execute().actionGet();
+
+        if (readOnly) {
+            client.admin().indices().prepareUpdateSettings(indexName)
+                    .setSettings(Settings.builder().put("index.blocks.write", true))
+                    .execute().actionGet();
+        }
+    }
+
     private IndexSettings loadIndexSettings() {
         return new IndexSettings().setShards(shards);
     }
 
     public void deleteIndex() {
+        String[] indices = getPhotonIndices();
+        if (indices.length == 0) {
+            return;
+        }
+
         try {
-            this.getClient().admin().indices().prepareDelete(PhotonIndex.NAME).execute().actionGet();
+            // Delete the indices behind the name, in case photon is an alias.
+            this.getClient().admin().indices().prepareDelete(indices).execute().actionGet();
         } catch (IndexNotFoundException e) {
             // ignore
         }
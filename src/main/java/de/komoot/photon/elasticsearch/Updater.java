@@ -1,11 +1,12 @@
 package de.komoot.photon.elasticsearch;
 
+import de.komoot.photon.DocumentEncoder;
 import de.komoot.photon.PhotonDoc;
-import de.komoot.photon.Utils;
 import lombok.extern.slf4j.Slf4j;
 import org.elasticsearch.action.bulk.BulkRequestBuilder;
 import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.common.xcontent.XContentType;
 
 import java.io.IOException;
 
@@ -20,12 +21,23 @@ public class Updater implements de.komoot.photon.Updater {
     private BulkRequestBuilder bulkRequest;
     private final String[] languages;
     private final String[] extraTags;
+    private DocumentEncoder encoder;
 
     public Updater(Client esClient, String[] languages, String extraTags) {
         this.esClient = esClient;
         this.bulkRequest = esClient.prepareBulk();
         this.languages = languages;
         this.extraTags = extraTags.split(",");
+        this.encoder = new DocumentEncoder(XContentType.JSON, languages, this.extraTags);
+    }
+
+    /**
+     * Set the format the documents are sent in.
+     *
+     * @param contentType JSON or one of the binary formats SMILE and CBOR.
+     */
+    public void setFormat(XContentType contentType) {
+        this.encoder = new DocumentEncoder(contentType, languages, extraTags);
     }
 
     public void finish() {
@@ -35,7 +47,7 @@ public class Updater implements de.komoot.photon.Updater {
     @Override
     public void create(PhotonDoc doc) {
         try {
-            bulkRequest.add(esClient.prepareIndex(PhotonIndex.NAME, PhotonIndex.TYPE).setSource(Utils.convert(doc, languages, extraTags)).setId(String.valueOf(doc.getPlaceId())));
+            bulkRequest.add(esClient.prepareIndex(PhotonIndex.NAME, PhotonIndex.TYPE).setSource(encoder.encode(doc), encoder.getContentType()).setId(String.valueOf(doc.getPlaceId())));
         } catch (IOException e) {
             log.error(String.format("creation of new doc [%s] failed", doc), e);
         }
@@ -0,0 +1,110 @@
+package de.komoot.photon.nominatim;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free queue for any number of producers and consumers.
+ *
+ * Each slot carries a sequence number that tells whether it is ready to be written
+ * or read in the current round, so that producers and consumers only need to
+ * compete for their position counter with a compare-and-set.
+ */
+class BatchRingBuffer<T> {
+    private final int mask;
+    private final AtomicReferenceArray<T> items;
+    private final AtomicLongArray sequences;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * @param minCapacity Minimum number of elements in the queue. Will be rounded up to the next power of two.
+     */
+    BatchRingBuffer(int minCapacity) {
+        int capacity = Integer.highestOneBit(Math.max(2, minCapacity) - 1) << 1;
+        mask = capacity - 1;
+        items = new AtomicReferenceArray<>(capacity);
+        sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; ++i) {
+            sequences.set(i, i);
+        }
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return Approximate number of elements in the queue.
+     */
+    int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(capacity(), size));
+    }
+
+    /**
+     * Add an element to the queue if there is space.
+     *
+     * @return True, if the element was added.
+     */
+    boolean offer(T item) {
+        while (true) {
+            long pos = tail.get();
+            int slot = (int) pos & mask;
+            long diff = sequences.get(slot) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    items.lazySet(slot, item);
+                    sequences.set(slot, pos + 1);
+                    return true;
+                }
+            } else if (diff < 0) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Remove the next element from the queue.
+     *
+     * @return The element or null if the queue is empty.
+     */
+    T poll() {
+        while (true) {
+            long pos = head.get();
+            int slot = (int) pos & mask;
+            long diff = sequences.get(slot) - (pos + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    T item = items.get(slot);
+                    items.lazySet(slot, null);
+                    sequences.set(slot, pos + mask + 1);
+                    return item;
+                }
+            } else if (diff < 0) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Add an element, waiting for free space with the given strategy if necessary.
+     */
+    void put(T item, WaitStrategy waitStrategy) {
+        for (int attempt = 0; !offer(item); ++attempt) {
+            waitStrategy.idle(attempt);
+        }
+    }
+
+    /**
+     * Remove the next element, waiting for one with the given strategy if necessary.
+     */
+    T take(WaitStrategy waitStrategy) {
+        T item;
+        for (int attempt = 0; (item = poll()) == null; ++attempt) {
+            waitStrategy.idle(attempt);
+        }
+        return item;
+    }
+}
@@ -0,0 +1,279 @@
+package de.komoot.photon.nominatim;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.PrecisionModel;
+
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Decoder for the output of PostgreSQL's <code>COPY ... TO STDOUT (FORMAT binary)</code>.
+ *
+ * The reader works row by row. The raw field data of the current row is kept in a
+ * reused buffer and only decoded when requested through one of the getters. The caller
+ * must know the type of each column. The query should cast columns explicitly to the
+ * type expected by the getter.
+ *
+ * Geometries must be sent as plain WKB (ST_AsBinary).
+ */
+class BinaryCopyReader implements Closeable {
+    private static final byte[] SIGNATURE = "PGCOPY\n\377\r\n\0".getBytes(StandardCharsets.ISO_8859_1);
+    private static final GeometryFactory FACTORY = new GeometryFactory(new PrecisionModel(), 4326);
+
+    private static final int WKB_POINT = 1;
+    private static final int WKB_LINESTRING = 2;
+    private static final int WKB_POLYGON = 3;
+
+    private final DataInputStream in;
+    private byte[] data = new byte[8192];
+    private ByteBuffer buffer = ByteBuffer.wrap(data);
+    private int[] offsets = new int[0];
+    private int[] lengths = new int[0];
+    private int numFields = 0;
+
+    BinaryCopyReader(InputStream input) throws IOException {
+        in = new DataInputStream(new BufferedInputStream(input, 65536));
+
+        byte[] signature = new byte[SIGNATURE.length];
+        in.readFully(signature);
+        if (!Arrays.equals(signature, SIGNATURE)) {
+            throw new IOException("Not a binary COPY stream.");
+        }
+
+        in.readInt(); // flags, nothing of interest in there
+        int extensionLength = in.readInt();
+        in.skipBytes(extensionLength);
+    }
+
+    /**
+     * Read the next row from the stream.
+     *
+     * @return False, when the end of the data has been reached.
+     */
+    boolean next() throws IOException {
+        int fields = in.readShort();
+        if (fields < 0) {
+            return false;
+        }
+
+        if (offsets.length < fields) {
+            offsets = new int[fields];
+            lengths = new int[fields];
+        }
+
+        int pos = 0;
+        for (int i = 0; i < fields; ++i) {
+            int len = in.readInt();
+            offsets[i] = pos;
+            lengths[i] = len;
+            if (len > 0) {
+                if (pos + len > data.length) {
+                    data = Arrays.copyOf(data, Math.max(2 * data.length, pos + len));
+                    buffer = ByteBuffer.wrap(data);
+                }
+                in.readFully(data, pos, len);
+                pos += len;
+            }
+        }
+        numFields = fields;
+
+        return true;
+    }
+
+    int getNumFields() {
+        return numFields;
+    }
+
+    boolean isNull(int col) {
+        return lengths[col] < 0;
+    }
+
+    /**
+     * Get a bigint column. NULL is returned as 0.
+     */
+    long getLong(int col) {
+        return isNull(col) ? 0 : buffer.getLong(offsets[col]);
+    }
+
+    /**
+     * Get an integer column. NULL is returned as 0.
+     */
+    int getInt(int col) {
+        return isNull(col) ? 0 : buffer.getInt(offsets[col]);
+    }
+
+    /**
+     * Get a double precision column. NULL is returned as 0.
+     */
+    double getDouble(int col) {
+        return isNull(col) ? 0 : buffer.getDouble(offsets[col]);
+    }
+
+    @Nullable
+    String getString(int col) {
+        return isNull(col) ? null : new String(data, offsets[col], lengths[col], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Decode an hstore column. Keys with NULL values are dropped.
+     */
+    Map<String, String> getHstore(int col) {
+        Map<String, String> map = new HashMap<>();
+        if (isNull(col)) {
+            return map;
+        }
+
+        int pos = offsets[col];
+        int count = buffer.getInt(pos);
+        pos += 4;
+        for (int i = 0; i < count; ++i) {
+            int keyLength = buffer.getInt(pos);
+            pos += 4;
+            String key = new String(data, pos, keyLength, StandardCharsets.UTF_8);
+            pos += keyLength;
+
+            int valueLength = buffer.getInt(pos);
+            pos += 4;
+            if (valueLength >= 0) {
+                map.put(key, new String(data, pos, valueLength, StandardCharsets.UTF_8));
+                pos += valueLength;
+            }
+        }
+
+        return map;
+    }
+
+    /**
+     * Decode a WKB point column.
+     */
+    @Nullable
+    Point getPoint(int col) {
+        if (isNull(col)) {
+            return null;
+        }
+
+        ByteBuffer wkb = wkbBuffer(col);
+        if (wkb.getInt() != WKB_POINT) {
+            throw new IllegalArgumentException("Column " + col + " is not a WKB point.");
+        }
+
+        return FACTORY.createPoint(new Coordinate(wkb.getDouble(), wkb.getDouble()));
+    }
+
+    /**
+     * Get the x coordinate of a WKB point column without creating a geometry. NULL is returned as NaN.
+     */
+    double getPointX(int col) {
+        return getPointCoordinate(col, 0);
+    }
+
+    /**
+     * Get the y coordinate of a WKB point column without creating a geometry. NULL is returned as NaN.
+     */
+    double getPointY(int col) {
+        return getPointCoordinate(col, 8);
+    }
+
+    private double getPointCoordinate(int col, int offset) {
+        if (isNull(col)) {
+            return Double.NaN;
+        }
+
+        ByteBuffer wkb = wkbBuffer(col);
+        if (wkb.getInt() != WKB_POINT) {
+            throw new IllegalArgumentException("Column " + col + " is not a WKB point.");
+        }
+
+        return wkb.getDouble(wkb.position() + offset);
+    }
+
+    /**
+     * Compute the envelope of a WKB geometry column.
+     *
+     * Supports the geometry types returned by ST_Envelope: points, lines and polygons.
+     */
+    @Nullable
+    Envelope getEnvelope(int col) {
+        double[] bounds = new double[4];
+        if (!getBounds(col, bounds)) {
+            return null;
+        }
+
+        return new Envelope(bounds[0], bounds[2], bounds[1], bounds[3]);
+    }
+
+    /**
+     * Compute the bounds of a WKB geometry column without creating any geometry objects.
+     *
+     * Supports the geometry types returned by ST_Envelope: points, lines and polygons.
+     *
+     * @param bounds Array of size 4 that receives min x, min y, max x and max y.
+     * @return False, if the column is NULL. The bounds are left untouched then.
+     */
+    boolean getBounds(int col, double[] bounds) {
+        if (isNull(col)) {
+            return false;
+        }
+
+        ByteBuffer wkb = wkbBuffer(col);
+        bounds[0] = bounds[1] = Double.POSITIVE_INFINITY;
+        bounds[2] = bounds[3] = Double.NEGATIVE_INFINITY;
+        int type = wkb.getInt();
+        switch (type) {
+            case WKB_POINT:
+                expand(bounds, wkb.getDouble(), wkb.getDouble());
+                break;
+            case WKB_LINESTRING:
+                readCoordinates(wkb, bounds);
+                break;
+            case WKB_POLYGON:
+                int rings = wkb.getInt();
+                for (int i = 0; i < rings; ++i) {
+                    readCoordinates(wkb, bounds);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported WKB geometry type " + type + " in column " + col);
+        }
+
+        return true;
+    }
+
+    private ByteBuffer wkbBuffer(int col) {
+        ByteBuffer wkb = ByteBuffer.wrap(data, offsets[col], lengths[col]);
+        wkb.order(wkb.get() == 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+        return wkb;
+    }
+
+    private static void readCoordinates(ByteBuffer wkb, double[] bounds) {
+        int points = wkb.getInt();
+        for (int i = 0; i < points; ++i) {
+            expand(bounds, wkb.getDouble(), wkb.getDouble());
+        }
+    }
+
+    private static void expand(double[] bounds, double x, double y) {
+        bounds[0] = Math.min(bounds[0], x);
+        bounds[1] = Math.min(bounds[1], y);
+        bounds[2] = Math.max(bounds[2], x);
+        bounds[3] = Math.max(bounds[3], y);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -6,6 +6,7 @@ import org.springframework.jdbc.core.JdbcTemplate;
 import javax.annotation.Nullable;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -27,4 +28,21 @@ public interface DBDataAdapter {
      * Check if a table has the given column.
      */
     boolean hasColumn(JdbcTemplate template, String table, String column);
+
+    /**
+     * Create an SQL expression that restricts the map in the given column to the given keys.
+     *
+     * @param keepAllIfEmpty When true, the unrestricted column is returned if none of the keys are present.
+     */
+    String sliceSql(String column, List<String> keys, boolean keepAllIfEmpty);
+
+    /**
+     * Create an SQL condition that is true when the map in the given column has any entries.
+     */
+    String notEmptySql(String column);
+
+    /**
+     * Create an SQL condition that is true when the map in the given column has one of the given keys.
+     */
+    String hasAnyKeySql(String column, List<String> keys);
 }
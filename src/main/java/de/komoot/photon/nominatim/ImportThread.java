@@ -1,92 +1,230 @@
 package de.komoot.photon.nominatim;
 
+import de.komoot.photon.ImportMetrics;
 import de.komoot.photon.Importer;
-import de.komoot.photon.PhotonDoc;
 import lombok.extern.slf4j.Slf4j;
 
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
+/**
+ * Hands documents from the database readers over to a pool of worker threads
+ * which feed them into the importer.
+ *
+ * Documents are collected into batches by each reader and passed through a
+ * lock-free ring buffer, so that there is no synchronisation per document.
+ */
 @Slf4j
 class ImportThread {
+    public static final int DEFAULT_BATCH_SIZE = 100;
     private static final int PROGRESS_INTERVAL = 50000;
-    private static final PhotonDoc FINAL_DOCUMENT = new PhotonDoc(0, null, 0, null, null);
-    private final BlockingQueue<PhotonDoc> documents = new LinkedBlockingDeque<>(20);
+    private static final int BATCHES_PER_WORKER = 4;
+    private static final List<NominatimResult> FINAL_BATCH = new ArrayList<>(0);
+    private static final List<NominatimResult> FLUSH_BATCH = new ArrayList<>(0);
+    private final BatchRingBuffer<List<NominatimResult>> batches;
+    private final WaitStrategy waitStrategy;
+    private final int batchSize;
     private final AtomicLong counter = new AtomicLong();
     private final Importer importer;
-    private final Thread thread;
+    private final List<Thread> threads = new ArrayList<>();
+    private final Supplier<String> progressDetails;
+    private final ImportMetrics metrics;
     private final long startMillis;
+    private CountDownLatch flushArrived;
+    private CountDownLatch flushRelease;
 
     public ImportThread(Importer importer) {
+        this(importer, 1, null, new ImportMetrics());
+    }
+
+    public ImportThread(Importer importer, int numWorkers, Supplier<String> progressDetails, ImportMetrics metrics) {
+        this(importer, numWorkers, DEFAULT_BATCH_SIZE, WaitStrategy.PARK, progressDetails, metrics);
+    }
+
+    /**
+     * Create a new import queue and start the worker threads.
+     *
+     * @param importer   Importer to send the documents to. When more than one worker is used,
+     *                   the importer must be able to handle concurrent calls to add().
+     * @param numWorkers Number of threads converting and importing documents.
+     * @param batchSize  Number of documents that are handed to the workers at once.
+     * @param waitStrategy How readers and workers wait for a full or empty queue.
+     * @param progressDetails Optional supplier of additional information to add to the progress report.
+     * @param metrics    Metrics to report queue wait times and document counts to.
+     */
+    public ImportThread(Importer importer, int numWorkers, int batchSize, WaitStrategy waitStrategy,
+                        Supplier<String> progressDetails, ImportMetrics metrics) {
         this.importer = importer;
-        this.thread = new Thread(new ImportRunnable());
-        this.thread.start();
+        this.progressDetails = progressDetails;
+        this.metrics = metrics;
+        this.batchSize = Math.max(1, batchSize);
+        this.waitStrategy = waitStrategy;
+        this.batches = new BatchRingBuffer<>(BATCHES_PER_WORKER * Math.max(1, numWorkers));
+        for (int i = 0; i < Math.max(1, numWorkers); ++i) {
+            Thread thread = new Thread(new ImportRunnable(), "photon-import-" + i);
+            thread.start();
+            threads.add(thread);
+        }
         this.startMillis = System.currentTimeMillis();
     }
 
+    /**
+     * Create a batch for documents of a single reader thread.
+     *
+     * The batch must be finished, before {@link #flush()} or {@link #finish()} are called.
+     */
+    public Batch newBatch() {
+        return new Batch();
+    }
+
     /**
      * Adds the given document from Nominatim to the import queue.
      *
      * @param docs Fully filled nominatim document.
      */
     public void addDocument(NominatimResult docs) {
-        for (PhotonDoc doc : docs.getDocsWithHousenumber()) {
-            while (true) {
-                try {
-                    documents.put(doc);
-                    break;
-                } catch (InterruptedException e) {
-                    log.warn("Thread interrupted while placing document in queue.");
-                    // Restore interrupted state.
-                    Thread.currentThread().interrupt();
-                }
-            }
-            if (counter.incrementAndGet() % PROGRESS_INTERVAL == 0) {
-                final double documentsPerSecond = 1000d * counter.longValue() / (System.currentTimeMillis() - startMillis);
-                log.info(String.format("imported %d documents [%.1f/second]", counter.longValue(), documentsPerSecond));
+        putBatch(Collections.singletonList(docs), docs.getNumDocuments());
+    }
+
+    private void putBatch(List<NominatimResult> batch, int numDocs) {
+        if (!batches.offer(batch)) {
+            long startNanos = System.nanoTime();
+            batches.put(batch, waitStrategy);
+            metrics.addTime(ImportMetrics.Stage.QUEUE_PUT_WAIT, startNanos);
+        }
+
+        if (numDocs > 0) {
+            metrics.sampleQueueOccupancy(batches.size(), batches.capacity());
+            metrics.countDocuments(numDocs);
+            long total = counter.addAndGet(numDocs);
+            if ((total - numDocs) / PROGRESS_INTERVAL != total / PROGRESS_INTERVAL) {
+                final double documentsPerSecond = 1000d * total / (System.currentTimeMillis() - startMillis);
+                String details = progressDetails == null ? "" : ", " + progressDetails.get();
+                log.info(String.format("imported %d documents [%.1f/second, queue %d/%d]%s", total, documentsPerSecond,
+                        batches.size(), batches.capacity(), details));
             }
         }
     }
 
     /**
-     * Finalize the import.
+     * Wait until all documents queued so far have been handed to the importer
+     * and then flush the importer.
      *
-     * Sends an end marker to the import thread and waiting for it to join.
+     * The workers are paused while the importer is flushed. Must only be called
+     * from one thread at a time.
      */
-    public void finish() {
+    public void flush() {
+        flushArrived = new CountDownLatch(threads.size());
+        flushRelease = new CountDownLatch(1);
+        // Each worker takes exactly one marker because it waits for the release afterwards.
+        for (int i = 0; i < threads.size(); ++i) {
+            putBatch(FLUSH_BATCH, 0);
+        }
+
+        awaitLatch(flushArrived);
+        importer.flush();
+        flushRelease.countDown();
+    }
+
+    private static void awaitLatch(CountDownLatch latch) {
         while (true) {
             try {
-                documents.put(FINAL_DOCUMENT);
-                thread.join();
+                latch.await();
                 break;
             } catch (InterruptedException e) {
-                log.warn("Thread interrupted while placing document in queue.");
+                log.warn("Thread interrupted while waiting for import flush.");
                 // Restore interrupted state.
                 Thread.currentThread().interrupt();
             }
         }
-        log.info(String.format("finished import of %d photon documents.", counter.longValue()));
     }
 
-    private class ImportRunnable implements Runnable {
+    /**
+     * Finalize the import.
+     *
+     * Sends an end marker to each worker thread, waits for them to join and
+     * then finishes the importer.
+     */
+    public void finish() {
+        for (int i = 0; i < threads.size(); ++i) {
+            putBatch(FINAL_BATCH, 0);
+        }
 
-        @Override
-        public void run() {
+        for (Thread thread : threads) {
             while (true) {
-                PhotonDoc doc;
                 try {
-                    doc = documents.take();
-                    if (doc == FINAL_DOCUMENT)
-                        break;
-                    importer.add(doc);
+                    thread.join();
+                    break;
                 } catch (InterruptedException e) {
-                    log.info("interrupted exception ", e);
+                    log.warn("Thread interrupted while waiting for import thread to finish.");
                     // Restore interrupted state.
                     Thread.currentThread().interrupt();
                 }
             }
-            importer.finish();
+        }
+
+        importer.finish();
+        log.info(String.format("finished import of %d photon documents.", counter.longValue()));
+        if (progressDetails != null) {
+            log.info(progressDetails.get());
+        }
+    }
+
+    /**
+     * Collects the documents of one reader until the batch size is reached.
+     * Not thread-safe, each reader needs its own batch.
+     */
+    class Batch {
+        private List<NominatimResult> docs = new ArrayList<>(batchSize);
+        private int numDocs = 0;
+
+        void add(NominatimResult result) {
+            docs.add(result);
+            numDocs += result.getNumDocuments();
+            if (docs.size() >= batchSize) {
+                finish();
+            }
+        }
+
+        /**
+         * Hand the documents collected so far to the workers.
+         */
+        void finish() {
+            if (!docs.isEmpty()) {
+                putBatch(docs, numDocs);
+                docs = new ArrayList<>(batchSize);
+                numDocs = 0;
+            }
+        }
+    }
+
+    private class ImportRunnable implements Runnable {
+
+        @Override
+        public void run() {
+            while (true) {
+                List<NominatimResult> batch = batches.poll();
+                if (batch == null) {
+                    long startNanos = System.nanoTime();
+                    batch = batches.take(waitStrategy);
+                    metrics.addTime(ImportMetrics.Stage.QUEUE_TAKE_WAIT, startNanos);
+                }
+                if (batch == FINAL_BATCH)
+                    break;
+                if (batch == FLUSH_BATCH) {
+                    CountDownLatch release = flushRelease;
+                    flushArrived.countDown();
+                    awaitLatch(release);
+                    continue;
+                }
+                for (NominatimResult doc : batch) {
+                    doc.addTo(importer);
+                }
+            }
         }
     }
 
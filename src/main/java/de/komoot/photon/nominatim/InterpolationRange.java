@@ -0,0 +1,70 @@
+package de.komoot.photon.nominatim;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.linearref.LengthIndexedLine;
+import de.komoot.photon.HousenumberVariants;
+
+/**
+ * Compact list of interpolated house numbers.
+ *
+ * The numbers form an arithmetic sequence, so only start, step and count are kept.
+ * Positions are packed into a single array of coordinates. House number strings
+ * are only created when requested.
+ */
+class InterpolationRange implements HousenumberVariants {
+    private final long start;
+    private final long step;
+    private final double[] coordinates;
+
+    /**
+     * Interpolate house numbers along a line.
+     *
+     * @param first       House number at the start of the line.
+     * @param last        House number at the end of the line.
+     * @param firstOffset Offset from first of the first number to include.
+     * @param step        Difference between two consecutive numbers.
+     * @param includeLast When true, last is included in the range if the sequence reaches it.
+     * @param geom        Geometry of the interpolation line.
+     */
+    InterpolationRange(long first, long last, long firstOffset, long step, boolean includeLast, Geometry geom) {
+        this.start = first + firstOffset;
+        this.step = step;
+
+        long end = includeLast ? last : last - 1;
+        int count = start > end ? 0 : (int) ((end - start) / step + 1);
+        coordinates = new double[2 * count];
+
+        if (count > 0) {
+            LengthIndexedLine line = new LengthIndexedLine(geom);
+            double si = line.getStartIndex();
+            double lstep = (line.getEndIndex() - si) / (double) (last - first);
+
+            for (int i = 0; i < count; ++i) {
+                Coordinate coord = line.extractPoint(si + lstep * (firstOffset + i * step));
+                coordinates[2 * i] = coord.x;
+                coordinates[2 * i + 1] = coord.y;
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return coordinates.length / 2;
+    }
+
+    @Override
+    public String getHousenumber(int index) {
+        return String.valueOf(start + index * step);
+    }
+
+    @Override
+    public double getLon(int index) {
+        return coordinates[2 * index];
+    }
+
+    @Override
+    public double getLat(int index) {
+        return coordinates[2 * index + 1];
+    }
+}
@@ -1,22 +1,42 @@
 package de.komoot.photon.nominatim;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import com.vividsolutions.jts.geom.Geometry;
+import de.komoot.photon.CheckpointStore;
+import de.komoot.photon.ImportMetrics;
 import de.komoot.photon.Importer;
 import de.komoot.photon.PhotonDoc;
+import de.komoot.photon.Utils;
 import de.komoot.photon.nominatim.model.AddressRow;
 import de.komoot.photon.nominatim.model.AddressType;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.dbcp2.BasicDataSource;
+import org.json.JSONArray;
+import org.json.JSONObject;
 import org.postgis.jts.JtsWrapper;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyInputStream;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 
+import java.io.IOException;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Export nominatim data
@@ -25,12 +45,66 @@ import java.util.Map;
  */
 @Slf4j
 public class NominatimConnector {
-    private static final String SELECT_COLS_PLACEX = "SELECT place_id, osm_type, osm_id, class, type, name, postcode, address, extratags, ST_Envelope(geometry) AS bbox, parent_place_id, linked_place_id, rank_address, rank_search, importance, country_code, centroid";
-    private static final String SELECT_COLS_ADDRESS = "SELECT p.name, p.class, p.type, p.rank_address";
+    // The name and extratags columns are filled in by buildProjectionSql().
+    // The geometry columns are added by selectPlacexSql().
+    private static final String SELECT_COLS_PLACEX = "SELECT place_id, osm_type, osm_id, class, type, %s AS name, postcode, address, %s AS extratags, parent_place_id, linked_place_id, rank_address, rank_search, importance, country_code";
+    private static final String GEOMETRY_COLS_PLACEX = "ST_Envelope(geometry) AS bbox, centroid";
+    private static final String PLAIN_GEOMETRY_COLS_PLACEX = "ST_XMin(geometry) AS bbox_minlon, ST_YMin(geometry) AS bbox_minlat,"
+            + " ST_XMax(geometry) AS bbox_maxlon, ST_YMax(geometry) AS bbox_maxlat,"
+            + " ST_X(centroid) AS centroid_lon, ST_Y(centroid) AS centroid_lat";
+    private static final String SELECT_COLS_ADDRESS = "SELECT %s AS name, p.class, p.type, p.rank_address";
+    /**
+     * Columns of placex for the binary COPY reader. The order must correspond to
+     * the column indexes used in {@link #readPlacexWithCopy(ImportThread, String)}.
+     */
+    private static final String SELECT_COPY_COLS_PLACEX = "SELECT place_id::int8, osm_type::text, osm_id::int8, class::text, type::text,"
+            + " %s, postcode::text, address, %s, ST_AsBinary(ST_Envelope(geometry)),"
+            + " parent_place_id::int8, linked_place_id::int8, rank_address::int4, rank_search::int4,"
+            + " importance::float8, country_code::text, ST_AsBinary(centroid)";
+
+    /**
+     * Number of place_id ranges to create per reader thread in a parallel import.
+     * Using more ranges than threads evens out differences in density between the ranges.
+     */
+    private static final int PARTITIONS_PER_THREAD = 16;
+    /**
+     * Maximum width of a single place_id range in a parallel import.
+     */
+    private static final long MAX_PARTITION_SIZE = 1000000;
+    private static final long DEFAULT_ADDRESS_CACHE_SIZE = 100000;
+    /**
+     * Address keys that NominatimResult takes house numbers from.
+     */
+    private static final List<String> HOUSENUMBER_KEYS = Arrays.asList("housenumber", "streetnumber", "conscriptionnumber");
+    /**
+     * Minimum time between two saved checkpoints. Saving a checkpoint requires flushing
+     * the importer, so it should not be done too often.
+     */
+    private static final long CHECKPOINT_INTERVAL_MILLIS = 5 * 60 * 1000;
 
     private final DBDataAdapter dbutils;
     private final JdbcTemplate template;
-    private Map<String, Map<String, String>> countryNames;
+    private volatile Map<String, Map<String, String>> countryNames;
+    private int readerThreads = 1;
+    private int importWorkers = 1;
+    private int importBatchSize = ImportThread.DEFAULT_BATCH_SIZE;
+    private WaitStrategy waitStrategy = WaitStrategy.PARK;
+    private boolean aggregateAddresses = false;
+    private boolean useCopy = false;
+    private boolean filterInSql = false;
+    private boolean interpolationLines = false;
+    private boolean plainCoordinates = false;
+    private StringDeduplicator strings = new StringDeduplicator(false);
+    private final AtomicLong skippedRows = new AtomicLong();
+    private final AtomicLong skippedAddressLookups = new AtomicLong();
+
+    // SQL for the name columns, depending on the projection set with setProjection().
+    private String selectColsPlacex;
+    private String selectColsAddress;
+    private String selectCopyColsPlacex;
+    private String addressNameSql;
+    private CheckpointStore checkpointStore = null;
+    private ImportMetrics metrics = new ImportMetrics();
 
     /**
      * Maps a row from location_property_osmline (address interpolation lines)
@@ -43,38 +117,89 @@ public class NominatimConnector {
     /**
      * maps a placex row in nominatim to a photon doc, some attributes are still missing and can be derived by connected address items.
      */
-    private final RowMapper<NominatimResult> placeRowMapper = new RowMapper<NominatimResult>() {
-        @Override
-        public NominatimResult mapRow(ResultSet rs, int rowNum) throws SQLException {
-            Map<String, String> address = dbutils.getMap(rs, "address");
-            PhotonDoc doc = new PhotonDoc(rs.getLong("place_id"),
-                                          rs.getString("osm_type"), rs.getLong("osm_id"),
-                                          rs.getString("class"), rs.getString("type"))
-                    .names(dbutils.getMap(rs, "name"))
-                    .extraTags(dbutils.getMap(rs, "extratags"))
-                    .bbox(dbutils.extractGeometry(rs, "bbox"))
-                    .parentPlaceId(rs.getLong("parent_place_id"))
-                    .countryCode(rs.getString("country_code"))
-                    .centroid(dbutils.extractGeometry(rs, "centroid"))
-                    .linkedPlaceId(rs.getLong("linked_place_id"))
-                    .rankAddress(rs.getInt("rank_address"))
-                    .postcode(rs.getString("postcode"));
-
-            double importance = rs.getDouble("importance");
-            doc.importance(rs.wasNull() ? (0.75 - rs.getInt("rank_search") / 40d) : importance);
-
-            completePlace(doc);
-            // Add address last, so it takes precedence.
-            doc.address(address);
-
-            doc.setCountry(getCountryNames(rs.getString("country_code")));
-
-            NominatimResult result = new NominatimResult(doc);
-            result.addHousenumbersFromAddress(address);
-
-            return result;
-        }
-    };
+    private final RowMapper<NominatimResult> placeRowMapper = (rs, rowNum) -> mapPlacexRow(rs, false);
+
+    /**
+     * Create the documents for a placex row.
+     *
+     * @param skipUseless When true, places that will not be added to the index are
+     *                    dropped before their address is looked up and null is returned.
+     */
+    private NominatimResult mapPlacexRow(ResultSet rs, boolean skipUseless) throws SQLException {
+        Map<String, String> address = strings.map(dbutils.getMap(rs, "address"));
+        PhotonDoc doc = new PhotonDoc(rs.getLong("place_id"),
+                                      strings.string(rs.getString("osm_type")), rs.getLong("osm_id"),
+                                      strings.string(rs.getString("class")), strings.string(rs.getString("type")))
+                .names(strings.keys(dbutils.getMap(rs, "name")))
+                .extraTags(strings.map(dbutils.getMap(rs, "extratags")))
+                .parentPlaceId(rs.getLong("parent_place_id"))
+                .countryCode(rs.getString("country_code"))
+                .linkedPlaceId(rs.getLong("linked_place_id"))
+                .rankAddress(rs.getInt("rank_address"))
+                .postcode(strings.string(rs.getString("postcode")));
+
+        if (plainCoordinates) {
+            doc.bbox(getCoordinate(rs, "bbox_minlon"), rs.getDouble("bbox_minlat"),
+                     rs.getDouble("bbox_maxlon"), rs.getDouble("bbox_maxlat"))
+               .centroid(getCoordinate(rs, "centroid_lon"), rs.getDouble("centroid_lat"));
+        } else {
+            doc.bbox(dbutils.extractGeometry(rs, "bbox"))
+               .centroid(dbutils.extractGeometry(rs, "centroid"));
+        }
+
+        double importance = rs.getDouble("importance");
+        doc.importance(rs.wasNull() ? (0.75 - rs.getInt("rank_search") / 40d) : importance);
+
+        NominatimResult result = new NominatimResult(doc);
+        result.addHousenumbersFromAddress(address);
+
+        if (skipUseless && skipEarly(result)) {
+            return null;
+        }
+
+        completePlace(doc, rs);
+        finishPlace(doc, address, rs.getString("country_code"));
+
+        return result;
+    }
+
+    /**
+     * Read a coordinate column. NULL is returned as NaN.
+     */
+    private static double getCoordinate(ResultSet rs, String column) throws SQLException {
+        double value = rs.getDouble(column);
+        return rs.wasNull() ? Double.NaN : value;
+    }
+
+    /**
+     * Check if the result can be dropped before its address is completed.
+     * Usefulness does not depend on the address hierarchy, so the check
+     * gives the same answer as after completion.
+     */
+    private boolean skipEarly(NominatimResult result) {
+        if (result.isUsefulForIndex()) {
+            return false;
+        }
+
+        skippedRows.incrementAndGet();
+        AddressType atype = result.getBaseDoc().getAddressType();
+        if (!aggregateAddresses && atype != null && atype != AddressType.COUNTRY) {
+            skippedAddressLookups.incrementAndGet();
+        }
+
+        return true;
+    }
+
+    /**
+     * Add the information to a placex document that has to be added after the address
+     * hierarchy.
+     */
+    private void finishPlace(PhotonDoc doc, Map<String, String> address, String countryCode) {
+        // Add address last, so it takes precedence.
+        doc.address(address);
+
+        doc.setCountry(getCountryNames(countryCode));
+    }
     private Importer importer;
 
     /**
@@ -95,6 +220,7 @@ public class NominatimConnector {
         template.setFetchSize(100000);
 
         dbutils = dataAdapter;
+        buildProjectionSql(null, null);
 
         // Setup handling of interpolation table. It has changed its format. Need to find out which one to use.
         if (dbutils.hasColumn(template, "location_property_osmline", "step")) {
@@ -107,13 +233,14 @@ public class NominatimConnector {
                         "place", "house_number")
                         .parentPlaceId(rs.getLong("parent_place_id"))
                         .countryCode(rs.getString("country_code"))
-                        .postcode(rs.getString("postcode"));
+                        .postcode(strings.string(rs.getString("postcode")));
 
-                completePlace(doc);
+                completePlace(doc, rs);
 
                 doc.setCountry(getCountryNames(rs.getString("country_code")));
 
                 NominatimResult result = new NominatimResult(doc);
+                result.setInterpolationLines(interpolationLines);
                 result.addHouseNumbersFromInterpolation(rs.getLong("startnumber"), rs.getLong("endnumber"),
                         rs.getLong("step"), geometry);
 
@@ -129,13 +256,14 @@ public class NominatimConnector {
                         "place", "house_number")
                         .parentPlaceId(rs.getLong("parent_place_id"))
                         .countryCode(rs.getString("country_code"))
-                        .postcode(rs.getString("postcode"));
+                        .postcode(strings.string(rs.getString("postcode")));
 
-                completePlace(doc);
+                completePlace(doc, rs);
 
                 doc.setCountry(getCountryNames(rs.getString("country_code")));
 
                 NominatimResult result = new NominatimResult(doc);
+                result.setInterpolationLines(interpolationLines);
                 result.addHouseNumbersFromInterpolation(rs.getLong("startnumber"), rs.getLong("endnumber"),
                         rs.getString("interpolationtype"), geometry);
 
@@ -157,82 +285,334 @@ public class NominatimConnector {
     }
 
     private Map<String, String> getCountryNames(String countrycode) {
+        Map<String, Map<String, String>> names = countryNames;
+        if (names == null) {
+            names = loadCountryNames();
+        }
+
+        return names.get(countrycode);
+    }
+
+    private synchronized Map<String, Map<String, String>> loadCountryNames() {
         if (countryNames == null) {
-            countryNames = new HashMap<>();
+            Map<String, Map<String, String>> names = new HashMap<>();
             template.query("SELECT country_code, name FROM country_name", rs -> {
-                countryNames.put(rs.getString("country_code"), dbutils.getMap(rs, "name"));
+                names.put(rs.getString("country_code"), dbutils.getMap(rs, "name"));
             });
+            countryNames = names;
         }
 
-        return countryNames.get(countrycode);
+        return countryNames;
     }
 
     public void setImporter(Importer importer) {
         this.importer = importer;
     }
 
+    /**
+     * Enable checkpointing of the import progress.
+     *
+     * When a checkpoint store is set, {@link #readEntireDatabase(String...)} first continues
+     * from the checkpoint found in the store and regularly saves its progress back to it.
+     * The database is then always read in place_id ranges, even with a single reader thread.
+     * A resumed import must use the same country restriction as the original one.
+     *
+     * @param store Checkpoint store to use or null to disable checkpointing.
+     */
+    public void setCheckpointStore(CheckpointStore store) {
+        checkpointStore = store;
+    }
+
+    /**
+     * Set the metrics object that collects timings of the import stages.
+     */
+    public void setMetrics(ImportMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Choose how the address hierarchy of each place is retrieved.
+     *
+     * By default, the address hierarchy is fetched with separate queries per place.
+     * When aggregation is enabled, the address rows are collected into a JSON array
+     * by the database as part of the main query, so that no further queries are needed.
+     *
+     * @param aggregate True, when the address rows should be aggregated server-side.
+     */
+    public void setAggregateAddresses(boolean aggregate) {
+        aggregateAddresses = aggregate;
+    }
+
+    /**
+     * Choose how address interpolations are exported.
+     *
+     * @param interpolationLines When true, each interpolation line becomes a single document
+     *                           with its number range. Otherwise one document per house number
+     *                           is created.
+     */
+    public void setInterpolationLines(boolean interpolationLines) {
+        this.interpolationLines = interpolationLines;
+    }
+
+    /**
+     * Let the database return bounding box and centroid of places as plain coordinates
+     * instead of geometries. Saves the creation of geometry objects for every row.
+     * Only works with PostgreSQL.
+     */
+    public void setPlainCoordinates(boolean plainCoordinates) {
+        this.plainCoordinates = plainCoordinates;
+    }
+
+    /**
+     * Share a single copy of repeated strings (tag keys and values, name keys, address names)
+     * between the documents in flight.
+     */
+    public void setDeduplicateStrings(boolean deduplicate) {
+        strings = new StringDeduplicator(deduplicate);
+    }
+
+    /**
+     * Restrict the names and extra tags read from the database to the ones that are
+     * used in the photon documents.
+     *
+     * The hstores are then sliced in the database, so that unused name translations
+     * are not transferred at all. A place whose names consist only of unused keys
+     * keeps its full name, so that it is still considered useful for the index.
+     * Requires the PostgreSQL hstore extension.
+     *
+     * @param languages Languages whose names should be kept. Null disables the projection.
+     * @param extraTags Extra tags that should be kept. The place and linked_place tags
+     *                  are kept in any case, empty entries are ignored.
+     */
+    public void setProjection(String[] languages, String[] extraTags) {
+        buildProjectionSql(languages, extraTags);
+    }
+
+    private void buildProjectionSql(String[] languages, String[] extraTags) {
+        String nameSql = "name";
+        String extraTagsSql = "extratags";
+        addressNameSql = "p.name";
+
+        if (languages != null) {
+            List<String> extraTagKeys = new ArrayList<>();
+            for (String tag : extraTags) {
+                if (!tag.isEmpty() && !extraTagKeys.contains(tag)) {
+                    extraTagKeys.add(tag);
+                }
+            }
+            // Always needed by PhotonDoc.extraTags() to refine the place type.
+            extraTagKeys.add("place");
+            extraTagKeys.add("linked_place");
+
+            nameSql = dbutils.sliceSql("name", Utils.getNameKeys(languages, true), true);
+            extraTagsSql = dbutils.sliceSql("extratags", extraTagKeys, false);
+            addressNameSql = dbutils.sliceSql("p.name", Utils.getNameKeys(languages, false), false);
+        }
+
+        selectColsPlacex = String.format(SELECT_COLS_PLACEX, nameSql, extraTagsSql);
+        selectColsAddress = String.format(SELECT_COLS_ADDRESS, addressNameSql);
+        selectCopyColsPlacex = String.format(SELECT_COPY_COLS_PLACEX, nameSql, extraTagsSql);
+    }
+
+    /**
+     * Drop places that will not be added to the index already in the placex query.
+     *
+     * Places without a name or housenumber and place=houses objects without a housenumber
+     * are then never transferred from the database. They are always dropped before the
+     * address lookup, this option only saves the transfer.
+     *
+     * @param filter True, when the filter should be added to the placex query.
+     */
+    public void setFilterInSql(boolean filter) {
+        filterInSql = filter;
+    }
+
+    /**
+     * SQL condition for placex matching the rules of {@link NominatimResult#isUsefulForIndex()}.
+     * Linked places are excluded separately.
+     */
+    private String usefulPlacexSql() {
+        if (!filterInSql) {
+            return "";
+        }
+
+        return " AND ((" + dbutils.notEmptySql("name") + " AND NOT (class = 'place' AND type = 'houses'))"
+                + "      OR " + dbutils.hasAnyKeySql("address", HOUSENUMBER_KEYS) + ")";
+    }
+
+    /**
+     * Choose how placex is read when importing the entire database.
+     *
+     * When enabled, placex is streamed with <code>COPY ... TO STDOUT (FORMAT binary)</code>
+     * and decoded directly instead of going through JDBC result sets.
+     * Interpolation lines are always read through JDBC. Only works with PostgreSQL.
+     *
+     * @param copy True, when the binary COPY reader should be used.
+     */
+    public void setUseCopy(boolean copy) {
+        useCopy = copy;
+    }
+
+    /**
+     * Set the number of worker threads that hand documents to the importer.
+     *
+     * @param workers Number of worker threads (at least 1).
+     */
+    public void setImportWorkers(int workers) {
+        importWorkers = Math.max(1, workers);
+    }
+
+    /**
+     * Set the number of documents that a reader collects before handing them to the worker threads.
+     */
+    public void setImportBatchSize(int batchSize) {
+        importBatchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Set how readers and workers wait when the import queue is full or empty.
+     */
+    public void setWaitStrategy(WaitStrategy waitStrategy) {
+        this.waitStrategy = waitStrategy;
+    }
+
+    /**
+     * Set the number of database connections to use in parallel when reading the
+     * entire database. With more than one thread, placex and location_property_osmline
+     * are split into place_id ranges which are then read concurrently.
+     *
+     * @param threads Number of reader threads (at least 1).
+     */
+    public void setReaderThreads(int threads) {
+        readerThreads = Math.max(1, threads);
+
+        if (template.getDataSource() instanceof BasicDataSource) {
+            // Each reader needs a second connection for the address lookups.
+            BasicDataSource dataSource = (BasicDataSource) template.getDataSource();
+            int required = 2 * readerThreads + 1;
+            if (dataSource.getMaxTotal() >= 0 && dataSource.getMaxTotal() < required) {
+                dataSource.setMaxTotal(required);
+            }
+            if (dataSource.getMaxIdle() >= 0 && dataSource.getMaxIdle() < required) {
+                dataSource.setMaxIdle(required);
+            }
+        }
+    }
+
     public List<PhotonDoc> getByPlaceId(long placeId) {
-        NominatimResult result = template.queryForObject(SELECT_COLS_PLACEX + " FROM placex WHERE place_id = ?",
+        NominatimResult result = template.queryForObject(selectPlacexSql() + " FROM placex WHERE place_id = ?",
                                                          placeRowMapper, placeId);
         assert(result != null);
         return result.getDocsWithHousenumber();
     }
 
     public List<PhotonDoc> getInterpolationsByPlaceId(long placeId) {
-        NominatimResult result = template.queryForObject(selectOsmlineSql
+        NominatimResult result = template.queryForObject(selectOsmlineSql()
                                                           + " FROM location_property_osmline WHERE place_id = ?",
                                                           osmlineRowMapper, placeId);
         assert(result != null);
         return result.getDocsWithHousenumber();
     }
 
-    private long parentPlaceId = -1;
-    private List<AddressRow> parentTerms = null;
+    /**
+     * Address hierarchies of places that have been used as parents, keyed by place_id.
+     */
+    private Cache<Long, AddressHierarchy> addressCache = buildAddressCache(DEFAULT_ADDRESS_CACHE_SIZE);
+    private final AtomicLong addressQueries = new AtomicLong();
 
-    List<AddressRow> getAddresses(PhotonDoc doc) {
-        RowMapper<AddressRow> rowMapper = (rs, rowNum) -> new AddressRow(
-                dbutils.getMap(rs, "name"),
-                rs.getString("class"),
-                rs.getString("type"),
-                rs.getInt("rank_address")
-        );
+    /**
+     * Address hierarchy of a place: its own address row (if it exists) followed by its address lines.
+     */
+    private static class AddressHierarchy {
+        private final List<AddressRow> terms;
+        private final int numSelfRows;
 
+        AddressHierarchy(List<AddressRow> terms, int numSelfRows) {
+            this.terms = terms;
+            this.numSelfRows = numSelfRows;
+        }
+
+        List<AddressRow> getAddressLines() {
+            return terms.subList(numSelfRows, terms.size());
+        }
+    }
+
+    private static Cache<Long, AddressHierarchy> buildAddressCache(long size) {
+        return CacheBuilder.newBuilder()
+                .maximumSize(size)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Set the maximum number of address hierarchies to keep in memory.
+     *
+     * @param size Maximum number of cached entries. 0 disables the cache.
+     */
+    public void setAddressCacheSize(long size) {
+        addressCache = buildAddressCache(Math.max(0, size));
+    }
+
+    /**
+     * Return a short summary of address lookup statistics for progress reports.
+     */
+    String getAddressStatistics() {
+        CacheStats stats = addressCache.stats();
+        return String.format("address cache: %d hits, %d misses [%.1f%%], %d address queries,"
+                        + " %d places skipped before address lookup (%d lookups saved)",
+                stats.hitCount(), stats.missCount(), 100 * stats.hitRate(), addressQueries.get(),
+                skippedRows.get(), skippedAddressLookups.get());
+    }
+
+    private final RowMapper<AddressRow> addressRowMapper = (rs, rowNum) -> new AddressRow(
+            strings.map(dbutils.getMap(rs, "name")),
+            strings.string(rs.getString("class")),
+            strings.string(rs.getString("type")),
+            rs.getInt("rank_address")
+    );
+
+    private List<AddressRow> queryAddressLines(long placeId) {
+        addressQueries.incrementAndGet();
+        return template.query(selectColsAddress
+                        + " FROM placex p, place_addressline pa"
+                        + " WHERE p.place_id = pa.address_place_id and pa.place_id = ?"
+                        + " and pa.cached_rank_address > 4 and pa.address_place_id != ? and pa.isaddress"
+                        + " ORDER BY rank_address desc, fromarea desc, distance asc, rank_search desc",
+                addressRowMapper, placeId, placeId);
+    }
+
+    List<AddressRow> getAddresses(PhotonDoc doc) {
         AddressType atype = doc.getAddressType();
 
         if (atype == null || atype == AddressType.COUNTRY) {
             return Collections.emptyList();
         }
 
-        List<AddressRow> terms = null;
-
         if (atype == AddressType.HOUSE) {
             long placeId = doc.getParentPlaceId();
-            if (placeId != parentPlaceId) {
-                parentTerms = template.query(SELECT_COLS_ADDRESS
-                                + " FROM placex p, place_addressline pa"
-                                + " WHERE p.place_id = pa.address_place_id and pa.place_id = ?"
-                                + " and pa.cached_rank_address > 4 and pa.address_place_id != ? and pa.isaddress"
-                                + " ORDER BY rank_address desc, fromarea desc, distance asc, rank_search desc",
-                        rowMapper, placeId, placeId);
-
+            AddressHierarchy parent = addressCache.getIfPresent(placeId);
+            if (parent == null) {
                 // need to add the term for the parent place ID itself
-                parentTerms.addAll(0, template.query(SELECT_COLS_ADDRESS + " FROM placex p WHERE p.place_id = ?",
-                        rowMapper, placeId));
-                parentPlaceId = placeId;
+                addressQueries.incrementAndGet();
+                List<AddressRow> parentTerms = template.query(selectColsAddress + " FROM placex p WHERE p.place_id = ?",
+                        addressRowMapper, placeId);
+                int numSelfRows = parentTerms.size();
+                parentTerms.addAll(queryAddressLines(placeId));
+
+                parent = new AddressHierarchy(parentTerms, numSelfRows);
+                addressCache.put(placeId, parent);
             }
-            terms = parentTerms;
 
-        } else {
-            long placeId = doc.getPlaceId();
-            terms = template.query(SELECT_COLS_ADDRESS
-                            + " FROM placex p, place_addressline pa"
-                            + " WHERE p.place_id = pa.address_place_id and pa.place_id = ?"
-                            + " and pa.cached_rank_address > 4 and pa.address_place_id != ? and pa.isaddress"
-                            + " ORDER BY rank_address desc, fromarea desc, distance asc, rank_search desc",
-                    rowMapper, placeId, placeId);
+            return parent.terms;
+        }
+
+        // The place may already have been looked up as a parent of another place.
+        AddressHierarchy cached = addressCache.getIfPresent(doc.getPlaceId());
+        if (cached != null) {
+            return cached.getAddressLines();
         }
 
-        return terms;
+        return queryAddressLines(doc.getPlaceId());
     }
 
     static String convertCountryCode(String... countryCodes) {
@@ -262,42 +642,409 @@ public class NominatimConnector {
 
         log.info("start importing documents from nominatim (" + (countryCodeStr.isEmpty() ? "global" : countryCodeStr) + ")");
 
-        ImportThread importThread = new ImportThread(importer);
+        metrics.setRowsEstimate(estimateRowCount("placex") + estimateRowCount("location_property_osmline"));
+        metrics.start();
+
+        ImportThread importThread = new ImportThread(importer, importWorkers, importBatchSize, waitStrategy,
+                this::getAddressStatistics, metrics);
+
+        if (readerThreads > 1 || checkpointStore != null) {
+            readPartitioned(importThread, andCountryCodeStr);
+        } else {
+            if (useCopy) {
+                readPlacexWithCopy(importThread, andCountryCodeStr);
+            } else {
+                readPlacex(importThread, andCountryCodeStr);
+            }
+            readOsmlines(importThread, andCountryCodeStr);
+        }
+
+        importThread.finish();
+        metrics.stop();
+
+        if (checkpointStore != null && importer.getFailedDocuments() == 0) {
+            // The checkpoint is only needed to resume an unfinished import.
+            checkpointStore.clear();
+        }
+    }
+
+    /**
+     * Get Postgres' estimate for the number of rows in the given table.
+     *
+     * @return The estimated number of rows or 0 if no estimate is available.
+     */
+    private long estimateRowCount(String table) {
+        try {
+            Long estimate = template.queryForObject("SELECT reltuples::bigint FROM pg_class WHERE relname = ?",
+                    Long.class, table);
+            return estimate == null ? 0 : Math.max(0, estimate);
+        } catch (DataAccessException e) {
+            log.debug("No row estimate available for " + table, e);
+            return 0;
+        }
+    }
+
+    /**
+     * A single place_id range of a table that is read in a separate task.
+     */
+    private static class ReadTask {
+        private final String table;
+        private final long[] range;
+        private final Future<?> future;
+
+        ReadTask(String table, long[] range, Future<?> future) {
+            this.table = table;
+            this.range = range;
+            this.future = future;
+        }
+    }
+
+    /**
+     * Read placex and location_property_osmline in place_id ranges over multiple connections.
+     *
+     * The ranges are processed in order of place_id. Within each range, rows are still sorted
+     * by geometry sector and parent, so that the parent address lookup keeps working.
+     */
+    private void readPartitioned(ImportThread importThread, String andCountryCodeStr) {
+        log.info(String.format("reading database with %d parallel connections", readerThreads));
+
+        Map<String, Long> checkpoint = new HashMap<>();
+        if (checkpointStore != null) {
+            checkpoint.putAll(checkpointStore.load());
+            if (!checkpoint.isEmpty()) {
+                log.info("resuming import from checkpoint " + checkpoint);
+            }
+        }
+
+        // Make sure the lazy-loaded country names are not loaded concurrently.
+        loadCountryNames();
+
+        ExecutorService executor = Executors.newFixedThreadPool(readerThreads);
+        try {
+            List<ReadTask> tasks = new ArrayList<>();
+            for (long[] range : computePartitions("placex", checkpoint.getOrDefault("placex", Long.MIN_VALUE))) {
+                tasks.add(new ReadTask("placex", range, executor.submit(() -> {
+                    if (useCopy) {
+                        // COPY does not support bind parameters.
+                        readPlacexWithCopy(importThread,
+                                andCountryCodeStr + " AND place_id >= " + range[0] + " AND place_id < " + range[1]);
+                    } else {
+                        readPlacex(importThread,
+                                andCountryCodeStr + " AND place_id >= ? AND place_id < ?", range[0], range[1]);
+                    }
+                })));
+            }
+            for (long[] range : computePartitions("location_property_osmline",
+                                                  checkpoint.getOrDefault("location_property_osmline", Long.MIN_VALUE))) {
+                tasks.add(new ReadTask("location_property_osmline", range, executor.submit(() -> readOsmlines(importThread,
+                        andCountryCodeStr + " AND place_id >= ? AND place_id < ?", range[0], range[1]))));
+            }
+
+            // Tasks are waited for in place_id order, so that everything below the end
+            // of the last finished task has been read.
+            long lastCheckpointMillis = System.currentTimeMillis();
+            boolean saveCheckpoints = checkpointStore != null;
+            for (ReadTask task : tasks) {
+                waitForTask(task.future);
+
+                if (saveCheckpoints) {
+                    checkpoint.put(task.table, task.range[1]);
+                    if (System.currentTimeMillis() - lastCheckpointMillis > CHECKPOINT_INTERVAL_MILLIS) {
+                        importThread.flush();
+                        if (importer.getFailedDocuments() > 0) {
+                            // A resume must import the failed documents again, so keep the last checkpoint.
+                            log.warn("documents could not be imported, the import checkpoint is no longer updated");
+                            saveCheckpoints = false;
+                        } else {
+                            checkpointStore.save(checkpoint);
+                            log.info("saved import checkpoint " + checkpoint);
+                        }
+                        lastCheckpointMillis = System.currentTimeMillis();
+                    }
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void waitForTask(Future<?> task) {
+        try {
+            task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while reading from database", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException("Error while reading from database", e.getCause());
+        }
+    }
+
+    /**
+     * Split the place_id space of the given table into half-open ranges [from, to).
+     *
+     * @param startId Smallest place_id to take into account.
+     */
+    List<long[]> computePartitions(String table, long startId) {
+        long[] bounds = template.queryForObject("SELECT min(place_id), max(place_id) FROM " + table
+                        + " WHERE place_id >= ?",
+                (rs, rowNum) -> {
+                    long minId = rs.getLong(1);
+                    return rs.wasNull() ? null : new long[]{minId, rs.getLong(2)};
+                }, startId);
+
+        List<long[]> partitions = new ArrayList<>();
+        if (bounds == null) {
+            return partitions;
+        }
+
+        long span = bounds[1] - bounds[0] + 1;
+        long numPartitions = (long) readerThreads * PARTITIONS_PER_THREAD;
+        long size = Math.max(1, Math.min(MAX_PARTITION_SIZE, (span + numPartitions - 1) / numPartitions));
+
+        for (long from = bounds[0]; from <= bounds[1]; from += size) {
+            partitions.add(new long[]{from, Math.min(from + size, bounds[1] + 1)});
+        }
 
-        template.query(SELECT_COLS_PLACEX + " FROM placex " +
-                " WHERE linked_place_id IS NULL AND centroid IS NOT NULL " + andCountryCodeStr +
+        return partitions;
+    }
+
+    private void readPlacex(ImportThread importThread, String andWhereStr, Object... args) {
+        ImportThread.Batch batch = importThread.newBatch();
+        // Time between the end of one row and the start of the next one is spent fetching from the database.
+        long[] fetchStart = {System.nanoTime()};
+        template.query(selectPlacexSql() + " FROM placex " +
+                " WHERE linked_place_id IS NULL AND centroid IS NOT NULL " + usefulPlacexSql() + andWhereStr +
                 " ORDER BY geometry_sector, parent_place_id; ", rs -> {
+                    long mapStart = System.nanoTime();
+                    metrics.addNanos(ImportMetrics.Stage.FETCH, mapStart - fetchStart[0]);
+                    metrics.countRow();
+
                     // turns a placex row into a photon document that gathers all de-normalised information
-                    NominatimResult docs = placeRowMapper.mapRow(rs, 0);
-                    assert(docs != null);
+                    NominatimResult docs = mapPlacexRow(rs, true);
+                    metrics.addTime(ImportMetrics.Stage.MAPPING, mapStart);
 
-                    if (docs.isUsefulForIndex()) {
-                        importThread.addDocument(docs);
+                    if (docs != null && docs.isUsefulForIndex()) {
+                        batch.add(docs);
+                    }
+                    fetchStart[0] = System.nanoTime();
+                }, args);
+        batch.finish();
+    }
+
+    /**
+     * Stream placex rows through a binary COPY and create the documents directly from the raw data.
+     */
+    private void readPlacexWithCopy(ImportThread importThread, String andWhereStr) {
+        String sql = "COPY (" + selectCopyColsPlacex
+                + (aggregateAddresses ? ", (" + placexAddressLinesSql() + ")::text" : "")
+                + " FROM placex WHERE linked_place_id IS NULL AND centroid IS NOT NULL " + usefulPlacexSql() + andWhereStr
+                + " ORDER BY geometry_sector, parent_place_id) TO STDOUT (FORMAT binary)";
+
+        template.execute((ConnectionCallback<Void>) connection -> {
+            PGConnection pgConnection = connection.unwrap(PGConnection.class);
+            try (BinaryCopyReader reader = new BinaryCopyReader(new PGCopyInputStream(pgConnection, sql))) {
+                ImportThread.Batch batch = importThread.newBatch();
+                long fetchStart = System.nanoTime();
+                while (reader.next()) {
+                    long mapStart = System.nanoTime();
+                    metrics.addNanos(ImportMetrics.Stage.FETCH, mapStart - fetchStart);
+                    metrics.countRow();
+
+                    NominatimResult docs = mapPlacexRow(reader);
+                    metrics.addTime(ImportMetrics.Stage.MAPPING, mapStart);
+
+                    if (docs != null && docs.isUsefulForIndex()) {
+                        batch.add(docs);
                     }
-                });
+                    fetchStart = System.nanoTime();
+                }
+                batch.finish();
+            } catch (IOException e) {
+                throw new SQLException("Error while reading placex with COPY", e);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Create the documents for a placex row from the binary COPY reader.
+     * Does the same as {@link #mapPlacexRow(ResultSet, boolean)} with skipping of useless places.
+     */
+    private NominatimResult mapPlacexRow(BinaryCopyReader row) {
+        Map<String, String> address = strings.map(row.getHstore(7));
+        PhotonDoc doc = new PhotonDoc(row.getLong(0), strings.string(row.getString(1)), row.getLong(2),
+                                      strings.string(row.getString(3)), strings.string(row.getString(4)))
+                .names(strings.keys(row.getHstore(5)))
+                .postcode(strings.string(row.getString(6)))
+                .extraTags(strings.map(row.getHstore(8)))
+                .parentPlaceId(row.getLong(10))
+                .linkedPlaceId(row.getLong(11))
+                .rankAddress(row.getInt(12))
+                .countryCode(row.getString(15))
+                .centroid(row.getPointX(16), row.getPointY(16));
 
-        template.query(selectOsmlineSql + " FROM location_property_osmline " +
+        double[] bounds = new double[4];
+        if (row.getBounds(9, bounds)) {
+            doc.bbox(bounds[0], bounds[1], bounds[2], bounds[3]);
+        }
+
+        doc.importance(row.isNull(14) ? (0.75 - row.getInt(13) / 40d) : row.getDouble(14));
+
+        NominatimResult result = new NominatimResult(doc);
+        result.addHousenumbersFromAddress(address);
+
+        if (skipEarly(result)) {
+            return null;
+        }
+
+        completeAddress(doc, aggregateAddresses ? row.getString(17) : null);
+        finishPlace(doc, address, row.getString(15));
+
+        return result;
+    }
+
+    private void readOsmlines(ImportThread importThread, String andWhereStr, Object... args) {
+        ImportThread.Batch batch = importThread.newBatch();
+        long[] fetchStart = {System.nanoTime()};
+        template.query(selectOsmlineSql() + " FROM location_property_osmline " +
                 "WHERE startnumber is not null " +
-                andCountryCodeStr +
+                andWhereStr +
                 " ORDER BY geometry_sector, parent_place_id; ", rs -> {
+                    long mapStart = System.nanoTime();
+                    metrics.addNanos(ImportMetrics.Stage.FETCH, mapStart - fetchStart[0]);
+                    metrics.countRow();
+
                     NominatimResult docs = osmlineRowMapper.mapRow(rs, 0);
                     assert(docs != null);
+                    metrics.addTime(ImportMetrics.Stage.MAPPING, mapStart);
 
                     if (docs.isUsefulForIndex()) {
-                        importThread.addDocument(docs);
+                        batch.add(docs);
                     }
-                });
+                    fetchStart[0] = System.nanoTime();
+                }, args);
+        batch.finish();
+    }
 
-        importThread.finish();
+    private String selectPlacexSql() {
+        String sql = selectColsPlacex + ", " + (plainCoordinates ? PLAIN_GEOMETRY_COLS_PLACEX : GEOMETRY_COLS_PLACEX);
+        if (!aggregateAddresses) {
+            return sql;
+        }
+
+        return sql + ", " + placexAddressLinesSql() + " AS addresslines";
+    }
+
+    /**
+     * SQL expression for the aggregated address rows of a placex row.
+     */
+    private String placexAddressLinesSql() {
+        // Houses get the address of their parent including the parent itself. Country-level places and
+        // places without address rank have no address.
+        return "CASE WHEN placex.rank_address > 4 THEN "
+                + aggregateAddressSql("CASE WHEN placex.rank_address >= 29 THEN placex.parent_place_id ELSE placex.place_id END",
+                                      "placex.rank_address >= 29")
+                + " END";
+    }
+
+    private String selectOsmlineSql() {
+        if (!aggregateAddresses) {
+            return selectOsmlineSql;
+        }
+
+        return selectOsmlineSql + ", "
+                + aggregateAddressSql("location_property_osmline.parent_place_id", "true")
+                + " AS addresslines";
+    }
+
+    /**
+     * Create a subquery that returns the address rows for the given place as a JSON array.
+     *
+     * Each entry is an array of name, class, type and address rank. The order is the
+     * same as in {@link #getAddresses(PhotonDoc)}.
+     *
+     * @param placeIdExpr   SQL expression for the place whose address lines to return.
+     * @param withSelfExpr  SQL condition, when the place itself should be included as first row.
+     */
+    private String aggregateAddressSql(String placeIdExpr, String withSelfExpr) {
+        return "(SELECT json_agg(json_build_array(a.name, a.class, a.type, a.rank_address)"
+                + "   ORDER BY a.ord, a.rank_address desc, a.fromarea desc, a.distance asc, a.rank_search desc)"
+                + " FROM (SELECT hstore_to_json(" + addressNameSql + ") AS name, p.class, p.type, p.rank_address, p.rank_search,"
+                + "              0 AS ord, null::boolean AS fromarea, null::float AS distance"
+                + "         FROM placex p WHERE " + withSelfExpr + " AND p.place_id = " + placeIdExpr
+                + "       UNION ALL"
+                + "       SELECT hstore_to_json(" + addressNameSql + "), p.class, p.type, p.rank_address, p.rank_search,"
+                + "              1, pa.fromarea, pa.distance"
+                + "         FROM placex p, place_addressline pa"
+                + "        WHERE p.place_id = pa.address_place_id and pa.place_id = " + placeIdExpr
+                + "          and pa.cached_rank_address > 4 and pa.address_place_id != pa.place_id and pa.isaddress) a)";
+    }
+
+    /**
+     * Convert the JSON array created by {@link #aggregateAddressSql(String, String)} into address rows.
+     */
+    static List<AddressRow> parseAddressRows(String json) {
+        return parseAddressRows(json, new StringDeduplicator(false));
+    }
+
+    private static List<AddressRow> parseAddressRows(String json, StringDeduplicator strings) {
+        if (json == null) {
+            return Collections.emptyList();
+        }
+
+        JSONArray rows = new JSONArray(json);
+        List<AddressRow> result = new ArrayList<>(rows.length());
+        for (int i = 0; i < rows.length(); ++i) {
+            JSONArray row = rows.getJSONArray(i);
+
+            Map<String, String> names = new HashMap<>();
+            JSONObject jsonNames = row.optJSONObject(0);
+            if (jsonNames != null) {
+                for (String key : jsonNames.keySet()) {
+                    if (!jsonNames.isNull(key)) {
+                        names.put(key, jsonNames.getString(key));
+                    }
+                }
+            }
+
+            result.add(new AddressRow(strings.map(names), strings.string(row.getString(1)),
+                                      strings.string(row.getString(2)), row.getInt(3)));
+        }
+
+        return result;
+    }
+
+    private void completePlace(PhotonDoc doc, ResultSet rs) throws SQLException {
+        completeAddress(doc, aggregateAddresses ? rs.getString("addresslines") : null);
+    }
+
+    /**
+     * Add the address hierarchy to the document, either from the aggregated address
+     * rows or by looking it up in the database.
+     *
+     * @param aggregatedRows Address rows as returned by {@link #aggregateAddressSql(String, String)}.
+     *                       Only used when address aggregation is enabled.
+     */
+    private void completeAddress(PhotonDoc doc, String aggregatedRows) {
+        long startNanos = System.nanoTime();
+        if (aggregateAddresses) {
+            completePlace(doc, parseAddressRows(aggregatedRows, strings));
+        } else {
+            completePlace(doc, getAddresses(doc));
+        }
+        metrics.addTime(ImportMetrics.Stage.ADDRESS_LOOKUP, startNanos);
     }
 
     /**
      * querying nominatim's address hierarchy to complete photon doc with missing data (like country, city, street, ...)
      *
      * @param doc
+     * @param addresses Address rows of the place as returned by {@link #getAddresses(PhotonDoc)}.
      */
-    private void completePlace(PhotonDoc doc) {
-        final List<AddressRow> addresses = getAddresses(doc);
+    private void completePlace(PhotonDoc doc, List<AddressRow> addresses) {
         final AddressType doctype = doc.getAddressType();
         for (AddressRow address : addresses) {
             AddressType atype = address.getAddressType();
@@ -1,28 +1,43 @@
 package de.komoot.photon.nominatim;
 
 import com.google.common.collect.ImmutableList;
+import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.geom.GeometryFactory;
-import com.vividsolutions.jts.geom.Point;
 import com.vividsolutions.jts.linearref.LengthIndexedLine;
+import de.komoot.photon.HousenumberVariants;
+import de.komoot.photon.Importer;
+import de.komoot.photon.InterpolationLine;
 import de.komoot.photon.PhotonDoc;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * A Nominatim result consisting of the basic PhotonDoc for the object
- * and a map of attached house numbers together with their respective positions.
+ * and a set of attached house numbers, which are all located at the centroid of the object.
+ * Interpolated house numbers are kept separately as compact ranges.
  */
 class NominatimResult {
     private PhotonDoc doc;
-    private Map<String, Point> housenumbers;
+    private Set<String> housenumbers;
+    private List<InterpolationRange> interpolations;
+    private boolean interpolationLines = false;
 
     public NominatimResult(PhotonDoc baseobj) {
         doc = baseobj;
         housenumbers = null;
+        interpolations = null;
+    }
+
+    /**
+     * Keep interpolations as a single line document instead of expanding them
+     * into one document per house number.
+     */
+    void setInterpolationLines(boolean interpolationLines) {
+        this.interpolationLines = interpolationLines;
     }
 
     PhotonDoc getBaseDoc() {
@@ -30,20 +45,100 @@ class NominatimResult {
     }
 
     boolean isUsefulForIndex() {
-        return (housenumbers != null && !housenumbers.isEmpty()) || doc.isUsefulForIndex();
+        return hasHousenumbers() || doc.isUsefulForIndex();
+    }
+
+    private boolean hasAddressHousenumbers() {
+        return housenumbers != null && !housenumbers.isEmpty();
+    }
+
+    private boolean hasHousenumbers() {
+        return hasAddressHousenumbers() || interpolations != null;
+    }
+
+    /**
+     * @return The number of documents this result expands to.
+     */
+    int getNumDocuments() {
+        if (!hasHousenumbers()) {
+            return 1;
+        }
+
+        int num = hasAddressHousenumbers() ? housenumbers.size() : 0;
+        if (interpolations != null) {
+            for (InterpolationRange range : interpolations) {
+                num += range.size();
+            }
+        }
+
+        return num;
+    }
+
+    /**
+     * Hand all documents of this result to the importer.
+     *
+     * Documents with house numbers are handed over as a group, so that the importer
+     * can share the work for the common part.
+     */
+    void addTo(Importer importer) {
+        if (!hasHousenumbers()) {
+            importer.add(doc);
+            return;
+        }
+
+        if (interpolations != null) {
+            for (InterpolationRange range : interpolations) {
+                importer.add(doc, range);
+            }
+        }
+
+        if (!hasAddressHousenumbers()) {
+            return;
+        }
+
+        final String[] numbers = housenumbers.toArray(new String[0]);
+
+        importer.add(doc, new HousenumberVariants() {
+            @Override
+            public int size() {
+                return numbers.length;
+            }
+
+            @Override
+            public String getHousenumber(int index) {
+                return numbers[index];
+            }
+
+            @Override
+            public double getLon(int index) {
+                return doc.getCentroidLon();
+            }
+
+            @Override
+            public double getLat(int index) {
+                return doc.getCentroidLat();
+            }
+        });
     }
 
     List<PhotonDoc> getDocsWithHousenumber() {
-        if (housenumbers == null || housenumbers.isEmpty()) {
+        if (!hasHousenumbers()) {
             return ImmutableList.of(doc);
         }
 
-        List<PhotonDoc> results = new ArrayList<>(housenumbers.size());
-        for (Map.Entry<String, Point> e : housenumbers.entrySet()) {
-            PhotonDoc copy = new PhotonDoc(doc);
-            copy.houseNumber(e.getKey());
-            copy.centroid(e.getValue());
-            results.add(copy);
+        List<PhotonDoc> results = new ArrayList<>(getNumDocuments());
+        if (hasAddressHousenumbers()) {
+            for (String housenumber : housenumbers) {
+                results.add(new PhotonDoc(doc).houseNumber(housenumber));
+            }
+        }
+
+        if (interpolations != null) {
+            for (InterpolationRange range : interpolations) {
+                for (int i = 0; i < range.size(); ++i) {
+                    results.add(doc.withHousenumber(range.getHousenumber(i), range.getLon(i), range.getLat(i)));
+                }
+            }
         }
 
         return results;
@@ -63,13 +158,13 @@ class NominatimResult {
             return;
 
         if (housenumbers == null)
-            housenumbers = new HashMap<>();
+            housenumbers = new HashSet<>();
 
         String[] parts = str.split(";");
         for (String part : parts) {
             String h = part.trim();
             if (!h.isEmpty())
-                housenumbers.put(h, doc.getCentroid());
+                housenumbers.add(h);
         }
     }
 
@@ -96,34 +191,23 @@ class NominatimResult {
      * @param geom Geometry of the interpolation line.
      */
     public void addHouseNumbersFromInterpolation(long first, long last, String interpoltype, Geometry geom) {
-        if (last <= first || (last - first) > 1000)
+        if (last <= first || (!interpolationLines && (last - first) > 1000))
             return;
 
-        if (housenumbers == null)
-            housenumbers = new HashMap<>();
-
-        LengthIndexedLine line = new LengthIndexedLine(geom);
-        double si = line.getStartIndex();
-        double ei = line.getEndIndex();
-        double lstep = (ei - si) / (double) (last - first);
-
         // leave out first and last, they have a distinct OSM node that is already indexed
         long step = 2;
         long num = 1;
-        if (interpoltype.equals("odd")) {
+        if ("odd".equals(interpoltype)) {
             if (first % 2 == 1)
                 ++num;
-        } else if (interpoltype.equals("even")) {
+        } else if ("even".equals(interpoltype)) {
             if (first % 2 == 0)
                 ++num;
         } else {
             step = 1;
         }
 
-        GeometryFactory fac = geom.getFactory();
-        for (; first + num < last; num += step) {
-            housenumbers.put(String.valueOf(num + first), fac.createPoint(line.extractPoint(si + lstep * num)));
-        }
+        addInterpolation(first, last, num, step, false, geom);
     }
 
     /**
@@ -138,20 +222,35 @@ class NominatimResult {
      * @param geom Geometry of the interpolation line.
      */
     public void addHouseNumbersFromInterpolation(long first, long last, long step, Geometry geom) {
-         if (last <= first || (last - first) > 1000)
+        if (last <= first || (!interpolationLines && (last - first) > 1000))
             return;
 
-        if (housenumbers == null)
-            housenumbers = new HashMap<>();
+        addInterpolation(first, last, 1, step, true, geom);
+    }
 
-        LengthIndexedLine line = new LengthIndexedLine(geom);
-        double si = line.getStartIndex();
-        double ei = line.getEndIndex();
-        double lstep = (ei - si) / (double) (last - first);
+    private void addInterpolation(long first, long last, long firstOffset, long step, boolean includeLast, Geometry geom) {
+        if (interpolationLines) {
+            long start = first + firstOffset;
+            long end = includeLast ? last : last - 1;
+            if (start > end)
+                return;
+            end = start + (end - start) / step * step;
 
-        GeometryFactory fac = geom.getFactory();
-        for (long num = 1; first + num <= last; num += step) {
-            housenumbers.put(String.valueOf(num + first), fac.createPoint(line.extractPoint(si + lstep * num)));
+            // Use the middle of the line as position, so that reverse lookups find the document.
+            LengthIndexedLine line = new LengthIndexedLine(geom);
+            Coordinate middle = line.extractPoint((line.getStartIndex() + line.getEndIndex()) / 2);
+            doc.interpolation(new InterpolationLine(first, last, start, end, step, geom.getCoordinates()))
+               .centroid(middle.x, middle.y);
+            return;
         }
+
+        InterpolationRange range = new InterpolationRange(first, last, firstOffset, step, includeLast, geom);
+        if (range.size() == 0)
+            return;
+
+        if (interpolations == null)
+            interpolations = new ArrayList<>();
+
+        interpolations.add(range);
     }
 }
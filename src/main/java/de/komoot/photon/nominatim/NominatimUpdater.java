@@ -43,6 +43,13 @@ public class NominatimUpdater {
         this.updater = updater;
     }
 
+    /**
+     * Update interpolations as single line documents. Must match the mode the database was imported with.
+     */
+    public void setInterpolationLines(boolean interpolationLines) {
+        exporter.setInterpolationLines(interpolationLines);
+    }
+
     public void update() {
         if (updateLock.tryLock()) {
             try {
@@ -174,6 +181,9 @@ public class NominatimUpdater {
         BasicDataSource dataSource = NominatimConnector.buildDataSource(host, port, database, username, password, true);
 
         exporter = new NominatimConnector(host, port, database, username, password);
+        // Updates run repeatedly on a long-running server. Cached addresses would
+        // keep old names of parents that were renamed in the meantime.
+        exporter.setAddressCacheSize(0);
         template = new JdbcTemplate(dataSource);
     }
 }
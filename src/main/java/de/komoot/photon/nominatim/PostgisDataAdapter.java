@@ -9,6 +9,7 @@ import org.springframework.jdbc.core.RowMapper;
 import javax.annotation.Nullable;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -48,4 +49,40 @@ public class PostgisDataAdapter implements DBDataAdapter {
                     }
                 }, table, column).get(0);
     }
+
+    @Override
+    public String sliceSql(String column, List<String> keys, boolean keepAllIfEmpty) {
+        String slice = "slice(" + column + ", " + sqlArray(keys) + ")";
+        if (keepAllIfEmpty) {
+            return "coalesce(nullif(" + slice + ", ''::hstore), " + column + ")";
+        }
+
+        return slice;
+    }
+
+    @Override
+    public String notEmptySql(String column) {
+        return "(" + column + " IS NOT NULL AND " + column + " != ''::hstore)";
+    }
+
+    @Override
+    public String hasAnyKeySql(String column, List<String> keys) {
+        // exists_any() instead of the ?| operator, which JDBC would take for a parameter.
+        return "exists_any(" + column + ", " + sqlArray(keys) + ")";
+    }
+
+    /**
+     * Create an SQL text array literal from the given strings.
+     */
+    static String sqlArray(List<String> items) {
+        StringBuilder sb = new StringBuilder("ARRAY[");
+        for (int i = 0; i < items.size(); ++i) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append('\'').append(items.get(i).replace("'", "''")).append('\'');
+        }
+
+        return sb.append("]::text[]").toString();
+    }
 }
@@ -0,0 +1,60 @@
+package de.komoot.photon.nominatim;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Canonicalizes strings read from the database, so that documents in flight share
+ * a single copy of repeated keys and values.
+ *
+ * The canonical instances are held weakly and are dropped when no document uses them anymore.
+ * When disabled, all functions return their input unchanged.
+ */
+class StringDeduplicator {
+    private final Interner<String> interner;
+
+    StringDeduplicator(boolean enabled) {
+        interner = enabled ? Interners.newWeakInterner() : null;
+    }
+
+    boolean isEnabled() {
+        return interner != null;
+    }
+
+    String string(String str) {
+        return (interner == null || str == null) ? str : interner.intern(str);
+    }
+
+    /**
+     * Canonicalize the keys of a map. Use for maps with mostly unique values, like names.
+     */
+    Map<String, String> keys(Map<String, String> map) {
+        if (interner == null || map.isEmpty()) {
+            return map;
+        }
+
+        Map<String, String> result = new HashMap<>(map.size() * 4 / 3 + 1);
+        for (Map.Entry<String, String> e : map.entrySet()) {
+            result.put(interner.intern(e.getKey()), e.getValue());
+        }
+        return result;
+    }
+
+    /**
+     * Canonicalize keys and values of a map.
+     */
+    Map<String, String> map(Map<String, String> map) {
+        if (interner == null || map.isEmpty()) {
+            return map;
+        }
+
+        Map<String, String> result = new HashMap<>(map.size() * 4 / 3 + 1);
+        for (Map.Entry<String, String> e : map.entrySet()) {
+            result.put(interner.intern(e.getKey()), string(e.getValue()));
+        }
+        return result;
+    }
+}
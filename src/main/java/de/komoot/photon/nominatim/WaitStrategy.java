@@ -0,0 +1,64 @@
+package de.komoot.photon.nominatim;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Defines how a thread waits when the import queue is full or empty.
+ */
+public enum WaitStrategy {
+    /** Keep the CPU busy. Lowest latency but occupies one core per waiting thread. */
+    SPIN {
+        @Override
+        void idle(int attempt) {
+            // busy loop
+        }
+    },
+    /** Give the CPU to other threads between attempts. */
+    YIELD {
+        @Override
+        void idle(int attempt) {
+            Thread.yield();
+        }
+    },
+    /** Spin and yield for a short while, then sleep for increasingly longer times. */
+    PARK {
+        @Override
+        void idle(int attempt) {
+            if (attempt < SPIN_TRIES) {
+                return;
+            }
+            if (attempt < SPIN_TRIES + YIELD_TRIES) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(Math.min(MAX_PARK_NANOS, 1000L << Math.min(20, attempt - SPIN_TRIES - YIELD_TRIES)));
+            }
+        }
+    };
+
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 100;
+    private static final long MAX_PARK_NANOS = 1000000;
+
+    /**
+     * Get the strategy for a name given on the command line.
+     *
+     * @param name One of spin, yield or park.
+     *
+     * @return The strategy or null if the name is not known.
+     */
+    public static WaitStrategy parse(String name) {
+        for (WaitStrategy strategy : values()) {
+            if (strategy.name().equalsIgnoreCase(name)) {
+                return strategy;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Wait before the next attempt to access the queue.
+     *
+     * @param attempt Number of unsuccessful attempts so far, starting with 0.
+     */
+    abstract void idle(int attempt);
+}
@@ -16,6 +16,20 @@ public enum AddressType {
     STATE("state", 5, 10),
     COUNTRY("country", 4, 4);
 
+    /** Address type for each Nominatim address rank. */
+    private static final AddressType[] RANK_TABLE = new AddressType[31];
+
+    static {
+        // Ranks at the border of two types belong to the type listed first.
+        for (AddressType a : values()) {
+            for (int rank = a.minRank; rank <= a.maxRank; ++rank) {
+                if (RANK_TABLE[rank] == null) {
+                    RANK_TABLE[rank] = a;
+                }
+            }
+        }
+    }
+
     private final String name;
     private final int minRank;
     private final int maxRank;
@@ -33,13 +47,11 @@ public enum AddressType {
      * @return The corresponding address type or null if not covered.
      */
     public static AddressType fromRank(int addressRank) {
-        for (AddressType a : AddressType.values()) {
-            if (a.coversRank(addressRank)) {
-                return a;
-            }
+        if (addressRank < 0 || addressRank >= RANK_TABLE.length) {
+            return null;
         }
 
-        return null;
+        return RANK_TABLE[addressRank];
     }
 
     /**
@@ -0,0 +1,106 @@
+package de.komoot.photon.query;
+
+import com.vividsolutions.jts.geom.Envelope;
+import de.komoot.photon.InterpolationLine;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.GeoBoundingBoxQueryBuilder;
+import org.elasticsearch.index.query.MultiMatchQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Query for documents of interpolation lines that contain a house number from the search query.
+ *
+ * The house number is taken out of the query. The remaining terms must match the address
+ * of the interpolation line.
+ */
+public class InterpolationQueryBuilder {
+    private static final int MAX_HOUSENUMBER_DIGITS = 9;
+
+    private final String query;
+    private final long housenumber;
+    private final String language;
+    private final List<String> languages;
+    private Envelope bbox;
+
+    private InterpolationQueryBuilder(String query, long housenumber, String language, List<String> languages) {
+        this.query = query;
+        this.housenumber = housenumber;
+        this.language = language;
+        this.languages = languages;
+    }
+
+    /**
+     * Create a builder for the first purely numeric term in the query.
+     *
+     * @return The builder or null, if the query has no numeric term or consists of nothing else.
+     */
+    public static InterpolationQueryBuilder builder(String query, String language, List<String> languages) {
+        String[] terms = query.trim().split("[\\s,]+");
+        for (int i = 0; i < terms.length; ++i) {
+            if (terms.length > 1 && isHousenumber(terms[i])) {
+                List<String> rest = new ArrayList<>(terms.length - 1);
+                for (int j = 0; j < terms.length; ++j) {
+                    if (j != i) {
+                        rest.add(terms[j]);
+                    }
+                }
+                return new InterpolationQueryBuilder(String.join(" ", rest), Long.parseLong(terms[i]), language, languages);
+            }
+        }
+
+        return null;
+    }
+
+    private static boolean isHousenumber(String term) {
+        if (term.isEmpty() || term.length() > MAX_HOUSENUMBER_DIGITS) {
+            return false;
+        }
+
+        for (int i = 0; i < term.length(); ++i) {
+            if (!Character.isDigit(term.charAt(i))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    public long getHousenumber() {
+        return housenumber;
+    }
+
+    public InterpolationQueryBuilder withBoundingBox(Envelope bbox) {
+        this.bbox = bbox;
+        return this;
+    }
+
+    public QueryBuilder buildQuery() {
+        MultiMatchQueryBuilder addressQuery = QueryBuilders.multiMatchQuery(query)
+                .field("collector.default", 1.0f)
+                .type(MultiMatchQueryBuilder.Type.CROSS_FIELDS)
+                .prefixLength(2)
+                .analyzer("search_ngram")
+                .minimumShouldMatch("100%");
+
+        for (String lang : languages) {
+            addressQuery.field(String.format("collector.%s.ngrams", lang), lang.equals(language) ? 1.0f : 0.6f);
+        }
+
+        BoolQueryBuilder finalQuery = QueryBuilders.boolQuery()
+                .must(addressQuery)
+                .filter(QueryBuilders.rangeQuery(InterpolationLine.FIELD + ".start").lte(housenumber))
+                .filter(QueryBuilders.rangeQuery(InterpolationLine.FIELD + ".end").gte(housenumber));
+
+        if (bbox != null) {
+            GeoBoundingBoxQueryBuilder bboxQuery = new GeoBoundingBoxQueryBuilder("coordinate");
+            bboxQuery.setCorners(bbox.getMaxY(), bbox.getMinX(), bbox.getMinY(), bbox.getMaxX());
+            finalQuery.filter(bboxQuery);
+        }
+
+        return finalQuery;
+    }
+}
@@ -1,12 +1,20 @@
 package de.komoot.photon.searcher;
 
+import de.komoot.photon.Constants;
+import de.komoot.photon.InterpolationLine;
+import de.komoot.photon.query.InterpolationQueryBuilder;
 import de.komoot.photon.query.PhotonQueryBuilder;
 import de.komoot.photon.query.PhotonRequest;
 import de.komoot.photon.utils.ConvertToJson;
 import org.elasticsearch.action.search.SearchResponse;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.function.Function;
 
 /**
  * Given a {@link PhotonRequest photon request}, execute the search, process it (for example, de-duplicate) and respond with results formatted in a list of {@link JSONObject json
@@ -18,11 +26,22 @@ public class PhotonRequestHandler {
 
     private final BaseElasticsearchSearcher elasticsearchSearcher;
     private final List<String> supportedLanguages;
+    private final boolean interpolationLines;
     private boolean lastLenient = false;
 
     public PhotonRequestHandler(BaseElasticsearchSearcher elasticsearchSearcher, List<String> supportedLanguages) {
+        this(elasticsearchSearcher, supportedLanguages, false);
+    }
+
+    /**
+     * @param interpolationLines True, when the database contains address interpolations as line documents.
+     *                           House numbers in the query are then also looked up in the interpolations.
+     */
+    public PhotonRequestHandler(BaseElasticsearchSearcher elasticsearchSearcher, List<String> supportedLanguages,
+                                boolean interpolationLines) {
         this.elasticsearchSearcher = elasticsearchSearcher;
         this.supportedLanguages = supportedLanguages;
+        this.interpolationLines = interpolationLines;
     }
 
     public List<JSONObject> handle(PhotonRequest photonRequest) {
@@ -36,7 +55,24 @@ public class PhotonRequestHandler {
             lastLenient = true;
             results = elasticsearchSearcher.search(buildQuery(photonRequest, true).buildQuery(), extLimit);
         }
-        List<JSONObject> resultJsonObjects = new ConvertToJson(photonRequest.getLanguage()).convert(results, photonRequest.getDebug());
+
+        InterpolationQueryBuilder interpolationQuery = interpolationLines
+                ? InterpolationQueryBuilder.builder(photonRequest.getQuery(), photonRequest.getLanguage(), supportedLanguages)
+                : null;
+        Function<InterpolationLine, OptionalLong> resolver = null;
+        if (interpolationQuery != null) {
+            final long housenumber = interpolationQuery.getHousenumber();
+            resolver = line -> line.contains(housenumber) ? OptionalLong.of(housenumber) : OptionalLong.empty();
+        }
+
+        ConvertToJson converter = new ConvertToJson(photonRequest.getLanguage(), resolver);
+        List<JSONObject> resultJsonObjects = converter.convert(results, photonRequest.getDebug());
+        if (interpolationQuery != null) {
+            SearchResponse interpolations = elasticsearchSearcher.search(
+                    interpolationQuery.withBoundingBox(photonRequest.getBbox()).buildQuery(), extLimit);
+            resultJsonObjects = mergeInterpolations(resultJsonObjects, converter.convert(interpolations, photonRequest.getDebug()),
+                                                    String.valueOf(interpolationQuery.getHousenumber()));
+        }
         StreetDupesRemover streetDupesRemover = new StreetDupesRemover(photonRequest.getLanguage());
         resultJsonObjects = streetDupesRemover.execute(resultJsonObjects);
         if (resultJsonObjects.size() > limit) {
@@ -45,6 +81,47 @@ public class PhotonRequestHandler {
         return resultJsonObjects;
     }
 
+    /**
+     * Add the results from interpolation lines. They go first unless the regular results
+     * already contain a place with the requested house number.
+     */
+    private static List<JSONObject> mergeInterpolations(List<JSONObject> results, List<JSONObject> interpolations,
+                                                        String housenumber) {
+        if (interpolations.isEmpty()) {
+            return results;
+        }
+
+        Set<String> seen = new HashSet<>();
+        boolean exactMatch = false;
+        for (JSONObject result : results) {
+            JSONObject properties = result.getJSONObject(Constants.PROPERTIES);
+            seen.add(resultKey(properties));
+            if (housenumber.equals(properties.optString(Constants.HOUSENUMBER))) {
+                exactMatch = true;
+            }
+        }
+
+        List<JSONObject> merged = new ArrayList<>(results.size() + interpolations.size());
+        if (exactMatch) {
+            merged.addAll(results);
+        }
+        for (JSONObject interpolation : interpolations) {
+            if (seen.add(resultKey(interpolation.getJSONObject(Constants.PROPERTIES)))) {
+                merged.add(interpolation);
+            }
+        }
+        if (!exactMatch) {
+            merged.addAll(results);
+        }
+
+        return merged;
+    }
+
+    private static String resultKey(JSONObject properties) {
+        return properties.optString(Constants.OSM_TYPE) + properties.optLong(Constants.OSM_ID) + "."
+                + properties.optString(Constants.HOUSENUMBER);
+    }
+
     public String dumpQuery(PhotonRequest photonRequest) {
         return buildQuery(photonRequest, lastLenient).buildQuery().toString();
     }
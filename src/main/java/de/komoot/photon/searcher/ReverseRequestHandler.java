@@ -1,5 +1,6 @@
 package de.komoot.photon.searcher;
 
+import com.vividsolutions.jts.geom.Point;
 import de.komoot.photon.query.ReverseQueryBuilder;
 import de.komoot.photon.query.ReverseRequest;
 import de.komoot.photon.utils.ConvertToJson;
@@ -7,6 +8,7 @@ import org.elasticsearch.action.search.SearchResponse;
 import org.json.JSONObject;
 
 import java.util.List;
+import java.util.OptionalLong;
 
 public class ReverseRequestHandler {
     private final ReverseElasticsearchSearcher elasticsearchSearcher;
@@ -19,7 +21,11 @@ public class ReverseRequestHandler {
         ReverseQueryBuilder queryBuilder = buildQuery(photonRequest);
         SearchResponse results = elasticsearchSearcher.search(queryBuilder.buildQuery(), photonRequest.getLimit(), photonRequest.getLocation(),
                 photonRequest.getLocationDistanceSort());
-        List<JSONObject> resultJsonObjects = new ConvertToJson(photonRequest.getLanguage()).convert(results, false);
+        // Documents for interpolation lines return the house number closest to the requested location.
+        Point location = photonRequest.getLocation();
+        List<JSONObject> resultJsonObjects = new ConvertToJson(photonRequest.getLanguage(),
+                line -> OptionalLong.of(line.getNearestHousenumber(location.getX(), location.getY())))
+                .convert(results, false);
         if (resultJsonObjects.size() > photonRequest.getLimit()) {
             resultJsonObjects = resultJsonObjects.subList(0, photonRequest.getLimit());
         }
@@ -2,14 +2,18 @@ package de.komoot.photon.utils;
 
 import com.google.common.collect.Lists;
 import de.komoot.photon.Constants;
+import de.komoot.photon.InterpolationLine;
 import lombok.extern.slf4j.Slf4j;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.search.SearchHit;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.OptionalLong;
+import java.util.function.Function;
 
 /**
  * Convert a elasticsearch {@link SearchResponse} into a list of {@link JSONObject}s
@@ -22,16 +26,30 @@ public class ConvertToJson {
     private static final String[] KEYS_LANG_SPEC = {Constants.NAME, Constants.COUNTRY, Constants.CITY, Constants.DISTRICT, Constants.LOCALITY, Constants.STREET, Constants.STATE, Constants.COUNTY};
     private static final String[] NAME_PRECEDENCE = {"default", "housename", "int", "loc", "reg", "alt", "old"};
     private final String lang;
+    private final Function<InterpolationLine, OptionalLong> housenumberResolver;
 
     public ConvertToJson(String lang) {
+        this(lang, null);
+    }
+
+    /**
+     * @param housenumberResolver Chooses the house number to return for documents that contain
+     *                            a whole interpolation line. Such documents are dropped when the
+     *                            resolver is null or returns no number.
+     */
+    public ConvertToJson(String lang, Function<InterpolationLine, OptionalLong> housenumberResolver) {
         this.lang = lang;
+        this.housenumberResolver = housenumberResolver;
     }
 
     public List<JSONObject> convert(SearchResponse searchResponse, boolean debugMode) {
         SearchHit[] hits = searchResponse.getHits().getHits();
         final List<JSONObject> list = Lists.newArrayListWithExpectedSize(hits.length);
         for (SearchHit hit : hits) {
-            final Map<String, Object> source = hit.getSource();
+            final Map<String, Object> source = resolveInterpolation(hit.getSource());
+            if (source == null) {
+                continue;
+            }
 
             final JSONObject feature = new JSONObject();
             if (debugMode) {
@@ -80,6 +98,41 @@ public class ConvertToJson {
         return list;
     }
 
+    /**
+     * Turn a document for an interpolation line into a document for a single house number.
+     *
+     * @return The source unchanged, if it is not an interpolation line, or null, if no house number
+     *         of the line should be returned.
+     */
+    private Map<String, Object> resolveInterpolation(Map<String, Object> source) {
+        final Map<String, Object> interpolation = (Map<String, Object>) source.get(InterpolationLine.FIELD);
+        if (interpolation == null) {
+            return source;
+        }
+
+        if (housenumberResolver == null) {
+            return null;
+        }
+
+        InterpolationLine line = InterpolationLine.fromSource(interpolation);
+        OptionalLong housenumber = housenumberResolver.apply(line);
+        if (!housenumber.isPresent()) {
+            return null;
+        }
+
+        double[] position = line.getPosition(housenumber.getAsLong());
+        Map<String, Object> coordinate = new HashMap<>();
+        coordinate.put(Constants.LON, position[0]);
+        coordinate.put(Constants.LAT, position[1]);
+
+        Map<String, Object> resolved = new HashMap<>(source);
+        resolved.remove(InterpolationLine.FIELD);
+        resolved.put(Constants.HOUSENUMBER, String.valueOf(housenumber.getAsLong()));
+        resolved.put("coordinate", coordinate);
+
+        return resolved;
+    }
+
     private String getLocalised(Map<String, Object> source, String fieldName, String lang) {
         final Map<String, String> map = (Map<String, String>) source.get(fieldName);
         if (map == null) return null;
@@ -0,0 +1,89 @@
+package de.komoot.photon;
+
+import de.komoot.photon.nominatim.model.AddressType;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.common.xcontent.XContentType;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares the size and the encoding cost of documents in the formats supported for bulk requests.
+ *
+ * For each format, logs the bytes per document that are sent to elasticsearch together with
+ * the CPU time and the memory allocated per document. The first line shows the plain conversion
+ * with a new XContentBuilder per document for reference. Optionally takes the number of documents
+ * as argument. Needs a JVM that can report the bytes allocated by a thread.
+ */
+@Slf4j
+public class BulkEncodingBenchmark {
+    private static final String[] LANGUAGES = {"en", "de", "fr", "it"};
+    private static final String[] EXTRA_TAGS = {"wheelchair"};
+    /** Number of consecutive documents that share a parent, as in dense urban areas. */
+    private static final int DOCS_PER_PARENT = 20;
+
+    private interface Encoder {
+        int encode(PhotonDoc doc) throws IOException;
+    }
+
+    private static List<PhotonDoc> buildDocs(int numDocs) {
+        List<PhotonDoc> docs = new ArrayList<>(numDocs);
+        Map<String, String> street = null;
+        for (int i = 0; i < numDocs; ++i) {
+            if (i % DOCS_PER_PARENT == 0) {
+                street = new HashMap<>();
+                street.put("name", "Street " + i);
+                street.put("name:de", "Straße " + i);
+            }
+            PhotonDoc doc = DocumentAllocationBenchmark.buildDoc(i).parentPlaceId(1 + i / DOCS_PER_PARENT);
+            doc.setAddressPartIfNew(AddressType.STREET, street);
+            docs.add(doc);
+        }
+        return docs;
+    }
+
+    private static void run(com.sun.management.ThreadMXBean threads, String name, List<PhotonDoc> docs,
+                            Encoder encoder) throws IOException {
+        long threadId = Thread.currentThread().getId();
+
+        // warm up
+        for (int i = 0; i < docs.size() / 10; ++i) {
+            encoder.encode(docs.get(i));
+        }
+
+        long size = 0;
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        long cpuBefore = threads.getCurrentThreadCpuTime();
+        for (PhotonDoc doc : docs) {
+            size += encoder.encode(doc);
+        }
+        long cpu = threads.getCurrentThreadCpuTime() - cpuBefore;
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        log.info(String.format("%-12s %8.1f bytes per document, %8.0f ns CPU per document, %8.1f bytes allocated per document",
+                name, size / (double) docs.size(), cpu / (double) docs.size(), allocated / (double) docs.size()));
+    }
+
+    public static void main(String[] args) throws IOException {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            log.error("this JVM cannot measure the allocated bytes per thread");
+            return;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+
+        int numDocs = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        List<PhotonDoc> docs = buildDocs(numDocs);
+
+        run(threads, "builder", docs, doc -> Utils.convert(doc, LANGUAGES, EXTRA_TAGS).bytes().length());
+        for (XContentType contentType : new XContentType[]{XContentType.JSON, XContentType.SMILE, XContentType.CBOR}) {
+            DocumentEncoder encoder = new DocumentEncoder(contentType, LANGUAGES, EXTRA_TAGS);
+            run(threads, contentType.shortName(), docs, doc -> encoder.encode(doc).length());
+        }
+    }
+}
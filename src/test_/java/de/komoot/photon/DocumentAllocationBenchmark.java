@@ -0,0 +1,82 @@
+package de.komoot.photon;
+
+import de.komoot.photon.nominatim.model.AddressType;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Measures the bytes allocated per document for building and converting photon documents
+ * as done during import.
+ *
+ * Run the benchmark on different revisions to compare the allocation rate. Optionally
+ * takes the number of documents as argument. Needs a JVM that can report the bytes
+ * allocated by a thread.
+ */
+@Slf4j
+public class DocumentAllocationBenchmark {
+    private static final String[] LANGUAGES = {"en", "de", "fr", "it"};
+    private static final String[] EXTRA_TAGS = {"wheelchair"};
+    private static final String[][] TAGS = {{"highway", "residential"}, {"amenity", "restaurant"},
+                                            {"shop", "bakery"}, {"place", "house"}, {"tourism", "guest_house"}};
+
+    static PhotonDoc buildDoc(int i) {
+        String[] tag = TAGS[i % TAGS.length];
+        Map<String, String> names = new HashMap<>();
+        names.put("name", "Place " + i);
+        names.put("name:de", "Ort " + i);
+
+        PhotonDoc doc = new PhotonDoc(i, "N", i, tag[0], tag[1])
+                .names(names)
+                .houseNumber(String.valueOf(i % 200))
+                .rankAddress(i % 31)
+                .centroid(13.4, 52.5);
+
+        for (int c = 0; c < 3; ++c) {
+            Map<String, String> context = new HashMap<>();
+            context.put("name", "Context " + (i + c) % 20);
+            context.put("name:de", "Kontext " + (i + c) % 20);
+            doc.getContext().add(context);
+        }
+
+        return doc;
+    }
+
+    private static long run(int numDocs) throws IOException {
+        long size = 0;
+        for (int i = 0; i < numDocs; ++i) {
+            PhotonDoc doc = buildDoc(i);
+            AddressType atype = doc.getAddressType();
+            size += doc.getUid().length() + (atype == null ? 0 : 1);
+            size += Utils.convert(doc, LANGUAGES, EXTRA_TAGS).bytes().length();
+        }
+        return size;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int numDocs = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            log.error("this JVM cannot measure the allocated bytes per thread");
+            return;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        long threadId = Thread.currentThread().getId();
+
+        // warm up
+        run(numDocs / 10);
+
+        long before = threads.getThreadAllocatedBytes(threadId);
+        long startNanos = System.nanoTime();
+        long size = run(numDocs);
+        long elapsedNanos = System.nanoTime() - startNanos;
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        log.info(String.format("%d documents (%d bytes output): %.1f bytes allocated per document, %.0f ns per document",
+                numDocs, size, allocated / (double) numDocs, elapsedNanos / (double) numDocs));
+    }
+}
@@ -0,0 +1,90 @@
+package de.komoot.photon;
+
+import de.komoot.photon.nominatim.model.AddressType;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class DocumentEncoderTest {
+    private static final String[] LANGUAGES = {"en", "de"};
+    private static final String[] EXTRA_TAGS = {"wheelchair"};
+
+    private static PhotonDoc createDoc() {
+        PhotonDoc doc = new PhotonDoc(1234, "N", 1000, "amenity", "cafe")
+                .names(Collections.singletonMap("name", "Corner Cafe"))
+                .extraTags(Collections.singletonMap("wheelchair", "yes"))
+                .parentPlaceId(99)
+                .centroid(13.4, 52.5);
+        doc.setAddressPartIfNew(AddressType.STREET, Collections.singletonMap("name", "Main Street"));
+        doc.getContext().add(Collections.singletonMap("name", "Berlin"));
+        return doc;
+    }
+
+    private static Map<String, Object> parse(BytesReference bytes, XContentType contentType) {
+        return XContentHelper.convertToMap(bytes, false, contentType).v2();
+    }
+
+    @Test
+    public void testEncodeInAllFormats() throws IOException {
+        Map<String, Object> expected = parse(Utils.convert(createDoc(), LANGUAGES, EXTRA_TAGS).bytes(), XContentType.JSON);
+
+        for (XContentType contentType : new XContentType[]{XContentType.JSON, XContentType.SMILE, XContentType.CBOR}) {
+            DocumentEncoder encoder = new DocumentEncoder(contentType, LANGUAGES, EXTRA_TAGS);
+            // Encode twice to make sure that the buffer is reused correctly.
+            for (int i = 0; i < 2; ++i) {
+                assertEquals(contentType.toString(), expected, parse(encoder.encode(createDoc()), contentType));
+            }
+        }
+    }
+
+    @Test
+    public void testEncodeHousenumberVariants() throws IOException {
+        HousenumberVariants variants = new HousenumberVariants() {
+            @Override
+            public int size() {
+                return 2;
+            }
+
+            @Override
+            public String getHousenumber(int index) {
+                return String.valueOf(index + 1);
+            }
+
+            @Override
+            public double getLon(int index) {
+                return 10.0 + index;
+            }
+
+            @Override
+            public double getLat(int index) {
+                return 50.0;
+            }
+        };
+
+        for (XContentType contentType : new XContentType[]{XContentType.JSON, XContentType.SMILE}) {
+            BytesReference[] sources = new DocumentEncoder(contentType, LANGUAGES, EXTRA_TAGS).encode(createDoc(), variants);
+
+            assertEquals(2, sources.length);
+            for (int i = 0; i < sources.length; ++i) {
+                Map<String, Object> expected = parse(Utils.convert(createDoc().withHousenumber(String.valueOf(i + 1), 10.0 + i, 50.0),
+                        LANGUAGES, EXTRA_TAGS).bytes(), XContentType.JSON);
+                assertEquals(expected, parse(sources[i], contentType));
+            }
+        }
+    }
+
+    @Test
+    public void testParseFormat() {
+        assertEquals(XContentType.JSON, DocumentEncoder.parseFormat("json"));
+        assertEquals(XContentType.SMILE, DocumentEncoder.parseFormat("SMILE"));
+        assertEquals(XContentType.CBOR, DocumentEncoder.parseFormat("cbor"));
+        assertNull(DocumentEncoder.parseFormat("yaml"));
+    }
+}
@@ -82,6 +82,14 @@ public class ESBaseTester {
         return new Updater(getClient(), new String[]{"en"}, extraTags);
     }
 
+    protected Server getServer() {
+        if (server == null) {
+            throw new RuntimeException("call setUpES before using getServer");
+        }
+
+        return server;
+    }
+
     protected Client getClient() {
         if (server == null) {
             throw new RuntimeException("call setUpES before using getClient");
@@ -0,0 +1,50 @@
+package de.komoot.photon;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ImportMetricsTest {
+
+    @Test
+    public void testEta() {
+        // 1000 rows in 10 seconds, 4000 rows to go
+        assertEquals(100.0, ImportMetrics.rowsPerSecond(1000, 10000), 0.001);
+        assertEquals(40, ImportMetrics.etaSeconds(1000, 5000, 10000));
+
+        // estimate too low
+        assertEquals(0, ImportMetrics.etaSeconds(6000, 5000, 10000));
+
+        // nothing to estimate from
+        assertEquals(-1, ImportMetrics.etaSeconds(1000, 0, 10000));
+        assertEquals(-1, ImportMetrics.etaSeconds(0, 5000, 10000));
+        assertEquals(-1, ImportMetrics.etaSeconds(1000, 5000, 0));
+    }
+
+    @Test
+    public void testStageTimesAndReport() {
+        ImportMetrics metrics = new ImportMetrics();
+        metrics.addNanos(ImportMetrics.Stage.FETCH, 1500000000L);
+        metrics.addNanos(ImportMetrics.Stage.FETCH, 1000000000L);
+        metrics.addTime(ImportMetrics.Stage.BULK, System.nanoTime());
+        metrics.countRow();
+        metrics.countRow();
+        metrics.countDocuments(3);
+        metrics.countFailedDocuments(1);
+        metrics.sampleQueueOccupancy(2, 4);
+        metrics.sampleQueueOccupancy(4, 4);
+
+        assertEquals(2500, metrics.getFetchMillis());
+        assertEquals(2, metrics.getRowsRead());
+        assertEquals(3, metrics.getDocuments());
+        assertEquals(1, metrics.getFailedDocuments());
+        assertEquals(75, metrics.getQueueFillPercent());
+
+        String report = metrics.report();
+        assertTrue(report, report.startsWith("import metrics: rows=2 rows_estimate=0 documents=3 failed=1 "));
+        assertTrue(report, report.contains(" eta_seconds=-1 "));
+        assertTrue(report, report.contains(" queue_fill_percent=75 "));
+        assertTrue(report, report.contains(" fetch_ms=2500 "));
+        assertTrue(report, report.contains(" es_took_ms=0"));
+    }
+}
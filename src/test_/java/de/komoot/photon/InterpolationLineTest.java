@@ -0,0 +1,63 @@
+package de.komoot.photon;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class InterpolationLineTest {
+    // Line from 1 to 11 (odd numbers) along an L-shaped way of length 0.2.
+    private final InterpolationLine line = new InterpolationLine(1, 11, 3, 9, 2,
+            new double[]{0.0, 0.0, 0.1, 0.0, 0.1, 0.1});
+
+    @Test
+    public void testContains() {
+        assertTrue(line.contains(3));
+        assertTrue(line.contains(9));
+        assertFalse(line.contains(1));
+        assertFalse(line.contains(4));
+        assertFalse(line.contains(11));
+    }
+
+    @Test
+    public void testGetPosition() {
+        double[] pos = line.getPosition(3);
+        assertEquals(0.04, pos[0], 0.0000001);
+        assertEquals(0.0, pos[1], 0.0000001);
+
+        pos = line.getPosition(9);
+        assertEquals(0.1, pos[0], 0.0000001);
+        assertEquals(0.06, pos[1], 0.0000001);
+    }
+
+    @Test
+    public void testGetNearestHousenumber() {
+        assertEquals(3, line.getNearestHousenumber(-1.0, 0.0));
+        assertEquals(5, line.getNearestHousenumber(0.08, 0.01));
+        assertEquals(9, line.getNearestHousenumber(0.11, 0.08));
+        assertEquals(9, line.getNearestHousenumber(0.1, 2.0));
+    }
+
+    @Test
+    public void testFromSource() {
+        Map<String, Object> source = new HashMap<>();
+        source.put("first", 1);
+        source.put("last", 11);
+        source.put("start", 3);
+        source.put("end", 9L);
+        source.put("step", 2);
+        source.put("line", Arrays.asList(Arrays.asList(0.0, 0.0), Arrays.asList(0.1, 0.0), Arrays.asList(0.1, 0.1)));
+
+        InterpolationLine restored = InterpolationLine.fromSource(source);
+
+        assertEquals(1, restored.getFirst());
+        assertEquals(11, restored.getLast());
+        assertEquals(3, restored.getStart());
+        assertEquals(9, restored.getEnd());
+        assertEquals(2, restored.getStep());
+        assertArrayEquals(line.getCoordinates(), restored.getCoordinates(), 0.0000001);
+    }
+}
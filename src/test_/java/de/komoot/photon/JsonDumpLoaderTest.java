@@ -0,0 +1,168 @@
+package de.komoot.photon;
+
+import de.komoot.photon.elasticsearch.PhotonIndex;
+import org.elasticsearch.action.get.GetResponse;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class JsonDumpLoaderTest extends ESBaseTester {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() throws IOException {
+        setUpES();
+    }
+
+    private File writeDump(int numDocs) throws IOException {
+        File dump = folder.newFile("dump.json");
+        JsonDumper dumper = new JsonDumper(dump.getAbsolutePath(), "en", "");
+        for (int i = 1; i <= numDocs; ++i) {
+            dumper.add(new PhotonDoc(i, "N", 1000 + i, "place", "city")
+                    .names(Collections.singletonMap("name", "Town " + i)));
+        }
+        dumper.finish();
+        return dump;
+    }
+
+    @Test
+    public void testComputeRangesStartAtRecords() throws IOException {
+        File dump = writeDump(100);
+
+        try (FileChannel channel = FileChannel.open(dump.toPath(), StandardOpenOption.READ)) {
+            List<long[]> ranges = JsonDumpLoader.computeRanges(channel, 7);
+
+            assertEquals(7, ranges.size());
+            long expectedStart = 0;
+            for (long[] range : ranges) {
+                assertEquals(expectedStart, range[0]);
+                ByteBuffer start = ByteBuffer.allocate(8);
+                channel.read(start, range[0]);
+                assertEquals("{\"index\"", new String(start.array(), StandardCharsets.UTF_8));
+                expectedStart = range[1];
+            }
+            assertEquals(channel.size(), expectedStart);
+        }
+    }
+
+    @Test
+    public void testParseId() {
+        byte[] action = "{\"index\": {\"_id\": \"12.3\\\"a\"}}".getBytes(StandardCharsets.UTF_8);
+        assertEquals("12.3\"a", JsonDumpLoader.parseId(ByteBuffer.wrap(action), 0, action.length));
+
+        byte[] noId = "{\"index\": {}}".getBytes(StandardCharsets.UTF_8);
+        assertNull(JsonDumpLoader.parseId(ByteBuffer.wrap(noId), 0, noId.length));
+    }
+
+    @Test
+    public void testLoadHousenumberVariants() throws IOException {
+        File dump = folder.newFile("variants.json");
+
+        JsonDumper dumper = new JsonDumper(dump.getAbsolutePath(), "en", "");
+        PhotonDoc base = new PhotonDoc(1234, "W", 1000, "place", "house_number")
+                .names(Collections.singletonMap("name", "Terrace"));
+        dumper.add(base, new TwoHousenumbers());
+        dumper.finish();
+
+        JsonDumpLoader loader = new JsonDumpLoader(makeImporter(), 3);
+        loader.load(dump.getAbsolutePath());
+        refresh();
+
+        GetResponse response = getClient().prepareGet(PhotonIndex.NAME, PhotonIndex.TYPE, "1234.2").execute().actionGet();
+        assertTrue(response.isExists());
+        assertEquals("2", response.getSource().get("housenumber"));
+        assertEquals("Terrace", ((Map<String, Object>) response.getSource().get("name")).get("default"));
+    }
+
+    @Test
+    public void testLoadDumpKeepsIds() throws IOException {
+        File dump = writeDump(50);
+
+        JsonDumpLoader loader = new JsonDumpLoader(makeImporter(), 3);
+        loader.load(dump.getAbsolutePath());
+        refresh();
+
+        for (int i = 1; i <= 50; ++i) {
+            GetResponse response = getById(i);
+            assertTrue(response.isExists());
+            assertEquals("Town " + i, ((Map<String, Object>) response.getSource().get("name")).get("default"));
+        }
+    }
+
+    @Test
+    public void testLoadShardedDumpFromManifest() throws IOException {
+        String dump = new File(folder.getRoot(), "sharded.json").getAbsolutePath();
+        JsonDumper dumper = new JsonDumper(dump, "en", "", 2, 1, true);
+        // Enough documents that lines continue over the blocks read from the compressed files.
+        for (int i = 1; i <= 2000; ++i) {
+            dumper.add(new PhotonDoc(i, "N", 1000 + i, "place", "city")
+                    .names(Collections.singletonMap("name", "Town " + i)));
+        }
+        dumper.finish();
+
+        JsonDumpLoader loader = new JsonDumpLoader(makeImporter(), 2);
+        loader.load(dump + ShardedDumpWriter.MANIFEST_SUFFIX);
+        refresh();
+
+        for (int i = 1; i <= 2000; ++i) {
+            assertTrue(getById(i).isExists());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testChangedShardFailsChecksum() throws IOException {
+        File dir = folder.newFolder("plain");
+        String dump = new File(dir, "plain.json").getAbsolutePath();
+        JsonDumper dumper = new JsonDumper(dump, "en", "", 2, 0, false);
+        for (int i = 1; i <= 20; ++i) {
+            dumper.add(new PhotonDoc(i, "N", 1000 + i, "place", "city")
+                    .names(Collections.singletonMap("name", "Town " + i)));
+        }
+        dumper.finish();
+
+        for (File file : dir.listFiles()) {
+            if (!file.getName().endsWith(ShardedDumpWriter.MANIFEST_SUFFIX)) {
+                Files.write(file.toPath(), "\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+            }
+        }
+
+        new JsonDumpLoader(makeImporter(), 2).load(dump + ShardedDumpWriter.MANIFEST_SUFFIX);
+    }
+
+    private static class TwoHousenumbers implements HousenumberVariants {
+        @Override
+        public int size() {
+            return 2;
+        }
+
+        @Override
+        public String getHousenumber(int index) {
+            return String.valueOf(index + 1);
+        }
+
+        @Override
+        public double getLon(int index) {
+            return 10.0;
+        }
+
+        @Override
+        public double getLat(int index) {
+            return 50.0;
+        }
+    }
+}
@@ -2,6 +2,7 @@ package de.komoot.photon;
 
 import java.util.HashMap;
 
+import com.vividsolutions.jts.geom.Envelope;
 import de.komoot.photon.nominatim.model.AddressType;
 import org.junit.Assert;
 import org.junit.Test;
@@ -22,6 +23,25 @@ public class PhotonDocTest {
         AssertUtil.assertAddressName("test street", doc, AddressType.STREET);
     }
 
+    @Test
+    public void testCompleteAddressKeepsSharedNames() {
+        HashMap<String, String> streetNames = new HashMap<>();
+        streetNames.put("name", "parent place street");
+
+        PhotonDoc doc = simplePhotonDoc();
+        doc.setAddressPartIfNew(AddressType.STREET, streetNames);
+        HashMap<String, String> address = new HashMap<>();
+        address.put("street", "test street");
+        doc.address(address);
+
+        PhotonDoc sibling = simplePhotonDoc();
+        sibling.setAddressPartIfNew(AddressType.STREET, streetNames);
+
+        AssertUtil.assertAddressName("test street", doc, AddressType.STREET);
+        AssertUtil.assertAddressName("parent place street", sibling, AddressType.STREET);
+        Assert.assertEquals("parent place street", streetNames.get("name"));
+    }
+
     @Test
     public void testCompleteAddressCreatesStreetIfNonExistantBefore() {
         PhotonDoc doc = simplePhotonDoc();
@@ -40,6 +60,24 @@ public class PhotonDocTest {
         Assert.assertEquals("DE", doc.getCountryCode().getAlpha2());
     }
 
+    @Test
+    public void testPlainCoordinates() {
+        PhotonDoc doc = simplePhotonDoc();
+        Assert.assertFalse(doc.hasCentroid());
+        Assert.assertNull(doc.getCentroid());
+        Assert.assertNull(doc.getBbox());
+
+        doc.centroid(9.5, 47.25).bbox(9.0, 47.0, 10.0, 48.0);
+
+        Assert.assertEquals(9.5, doc.getCentroid().getX(), 0.0000001);
+        Assert.assertEquals(47.25, doc.getCentroid().getY(), 0.0000001);
+        Assert.assertEquals(new Envelope(9.0, 10.0, 47.0, 48.0), doc.getBbox());
+
+        PhotonDoc copy = doc.withHousenumber("5", Double.NaN, Double.NaN);
+        Assert.assertFalse(copy.hasCentroid());
+        Assert.assertEquals(doc.getBbox(), copy.getBbox());
+    }
+
     private PhotonDoc simplePhotonDoc() {
         return new PhotonDoc(1, "W", 2, "highway", "residential").houseNumber("4");
     }
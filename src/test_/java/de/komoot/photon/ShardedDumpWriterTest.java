@@ -0,0 +1,113 @@
+package de.komoot.photon;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+public class ShardedDumpWriterTest {
+    private static final String RECORD = "{\"index\": {\"_id\": \"1\"}}\n{\"osm_id\": 1}\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private JSONObject readManifest(String filename) throws IOException {
+        byte[] manifest = Files.readAllBytes(new File(filename + ShardedDumpWriter.MANIFEST_SUFFIX).toPath());
+        return new JSONObject(new String(manifest, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testSingleFileHasNoManifest() throws IOException {
+        String filename = new File(folder.getRoot(), "dump.json").getAbsolutePath();
+        ShardedDumpWriter writer = new ShardedDumpWriter(filename, 1, 0, false);
+        writer.write(RECORD, 1);
+        writer.close();
+
+        assertEquals(RECORD, new String(Files.readAllBytes(new File(filename).toPath()), StandardCharsets.UTF_8));
+        assertFalse(new File(filename + ShardedDumpWriter.MANIFEST_SUFFIX).exists());
+    }
+
+    @Test
+    public void testStartsNewFileAtMaximumSize() throws IOException, NoSuchAlgorithmException {
+        String filename = new File(folder.getRoot(), "dump.json").getAbsolutePath();
+        ShardedDumpWriter writer = new ShardedDumpWriter(filename, 1, RECORD.length() * 2, false);
+        for (int i = 0; i < 5; ++i) {
+            writer.write(RECORD, 1);
+        }
+        writer.close();
+
+        JSONObject manifest = readManifest(filename);
+        assertEquals("none", manifest.getString("compression"));
+        assertEquals(5, manifest.getLong("documents"));
+
+        JSONArray files = manifest.getJSONArray("files");
+        assertEquals(3, files.length());
+        assertEquals("dump.json.00000", files.getJSONObject(0).getString("name"));
+        assertEquals(2, files.getJSONObject(0).getLong("documents"));
+        assertEquals(1, files.getJSONObject(2).getLong("documents"));
+
+        byte[] content = Files.readAllBytes(new File(folder.getRoot(), "dump.json.00000").toPath());
+        assertEquals(content.length, files.getJSONObject(0).getLong("bytes"));
+        assertEquals(ShardedDumpWriter.toHex(MessageDigest.getInstance("SHA-256").digest(content)),
+                files.getJSONObject(0).getString("sha256"));
+    }
+
+    @Test
+    public void testCompressedShardsFromSeveralThreads() throws Exception {
+        String filename = new File(folder.getRoot(), "dump.json").getAbsolutePath();
+        ShardedDumpWriter writer = new ShardedDumpWriter(filename, 2, 0, true);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; ++t) {
+            threads[t] = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 100; ++i) {
+                        writer.write(RECORD, 1);
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        writer.close();
+
+        JSONObject manifest = readManifest(filename);
+        assertEquals("gzip", manifest.getString("compression"));
+        assertEquals(400, manifest.getLong("documents"));
+
+        JSONArray files = manifest.getJSONArray("files");
+        assertEquals(2, files.length());
+        for (int i = 0; i < files.length(); ++i) {
+            File file = new File(folder.getRoot(), files.getJSONObject(i).getString("name"));
+            assertTrue(file.getName().endsWith(".gz"));
+
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            try (InputStream in = new GZIPInputStream(Files.newInputStream(file.toPath()))) {
+                byte[] buffer = new byte[4096];
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    content.write(buffer, 0, read);
+                }
+            }
+            String text = content.toString("UTF-8");
+            assertEquals(RECORD.length() * files.getJSONObject(i).getLong("documents"), text.length());
+            assertTrue(text.startsWith(RECORD));
+        }
+    }
+}
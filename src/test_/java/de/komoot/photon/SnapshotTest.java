@@ -0,0 +1,175 @@
+package de.komoot.photon;
+
+import de.komoot.photon.nominatim.model.AddressType;
+import org.json.JSONObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class SnapshotTest {
+    private static final String[] LANGUAGES = {"en", "de"};
+    private static final String[] EXTRA_TAGS = {"wheelchair"};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static PhotonDoc createDoc(long placeId) {
+        Map<String, String> names = new HashMap<>();
+        names.put("name", "Café " + placeId);
+        names.put("name:de", "Kaffeehaus " + placeId);
+        PhotonDoc doc = new PhotonDoc(placeId, "N", 1000 + placeId, "amenity", "cafe")
+                .names(names)
+                .extraTags(Collections.singletonMap("wheelchair", "yes"))
+                .postcode("10115")
+                .countryCode("de")
+                .parentPlaceId(99)
+                .importance(0.25)
+                .rankAddress(30)
+                .bbox(13.3, 52.4, 13.5, 52.6)
+                .centroid(13.4, 52.5);
+        doc.setAddressPartIfNew(AddressType.STREET, Collections.singletonMap("name", "Main Street"));
+        doc.setAddressPartIfNew(AddressType.CITY, Collections.singletonMap("name", "Berlin"));
+        doc.getContext().add(Collections.singletonMap("name", "Mitte"));
+        return doc;
+    }
+
+    private static void assertSameJson(PhotonDoc expected, PhotonDoc actual) throws IOException {
+        JSONObject expectedJson = new JSONObject(Utils.convert(expected, LANGUAGES, EXTRA_TAGS).string());
+        JSONObject actualJson = new JSONObject(Utils.convert(actual, LANGUAGES, EXTRA_TAGS).string());
+        assertTrue(actualJson.toString(), expectedJson.similar(actualJson));
+    }
+
+    private static class Collector implements Importer {
+        private final List<PhotonDoc> docs = new ArrayList<>();
+        private int finishCalled = 0;
+
+        @Override
+        public synchronized void add(PhotonDoc doc) {
+            docs.add(doc);
+        }
+
+        @Override
+        public void finish() {
+            ++finishCalled;
+        }
+    }
+
+    private static class Numbers implements HousenumberVariants {
+        @Override
+        public int size() {
+            return 3;
+        }
+
+        @Override
+        public String getHousenumber(int index) {
+            return index + "a";
+        }
+
+        @Override
+        public double getLon(int index) {
+            return index == 2 ? Double.NaN : 10.0 + index;
+        }
+
+        @Override
+        public double getLat(int index) {
+            return 50.0;
+        }
+    }
+
+    @Test
+    public void testDocumentsAreRestored() throws IOException {
+        String filename = new File(folder.getRoot(), "snapshot.bin").getAbsolutePath();
+        PhotonDoc base = createDoc(2).houseNumber(null);
+        PhotonDoc line = new PhotonDoc(3, "W", 77, "place", "houses")
+                .interpolation(new InterpolationLine(2, 10, 4, 8, 2, new double[]{1.0, 2.0, 1.5, 2.5}));
+
+        SnapshotWriter writer = new SnapshotWriter(filename, true);
+        writer.add(createDoc(1));
+        writer.add(base, new Numbers());
+        writer.add(line);
+        writer.finish();
+
+        Collector collector = new Collector();
+        try (SnapshotReader reader = new SnapshotReader(filename, 1)) {
+            assertTrue(reader.isInterpolationLines());
+            assertEquals(5, reader.read(collector));
+        }
+
+        assertEquals(1, collector.finishCalled);
+        assertEquals(5, collector.docs.size());
+        assertSameJson(createDoc(1), collector.docs.get(0));
+
+        Numbers numbers = new Numbers();
+        for (int i = 0; i < numbers.size(); ++i) {
+            PhotonDoc expected = base.withHousenumber(numbers.getHousenumber(i), numbers.getLon(i), numbers.getLat(i));
+            assertSameJson(expected, collector.docs.get(1 + i));
+        }
+
+        PhotonDoc restored = collector.docs.get(4);
+        assertEquals("houses", restored.getTagValue());
+        assertEquals(4, restored.getInterpolation().getStart());
+        assertArrayEquals(new double[]{1.0, 2.0, 1.5, 2.5}, restored.getInterpolation().getCoordinates(), 0.0);
+        assertFalse(restored.hasCentroid());
+    }
+
+    @Test
+    public void testParallelWritersAndReaders() throws Exception {
+        String filename = new File(folder.getRoot(), "snapshot.bin").getAbsolutePath();
+        SnapshotWriter writer = new SnapshotWriter(filename, false);
+
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; ++t) {
+            final int offset = t * 10000;
+            threads[t] = new Thread(() -> {
+                for (int i = 1; i <= 5000; ++i) {
+                    writer.add(createDoc(offset + i));
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        writer.finish();
+
+        Collector collector = new Collector();
+        try (SnapshotReader reader = new SnapshotReader(filename, 3)) {
+            assertFalse(reader.isInterpolationLines());
+            assertEquals(20000, reader.read(collector));
+        }
+
+        long sum = 0;
+        for (PhotonDoc doc : collector.docs) {
+            assertEquals("Kaffeehaus " + doc.getPlaceId(), doc.getName().get("name:de"));
+            sum += doc.getPlaceId();
+        }
+        assertEquals(4 * (5000L * 5001 / 2) + 5000L * 10000 * (0 + 1 + 2 + 3), sum);
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncatedSnapshotFails() throws IOException {
+        String filename = new File(folder.getRoot(), "snapshot.bin").getAbsolutePath();
+        SnapshotWriter writer = new SnapshotWriter(filename, false);
+        writer.add(createDoc(1));
+        writer.finish();
+
+        try (RandomAccessFile file = new RandomAccessFile(filename, "rw")) {
+            file.setLength(file.length() - 4);
+        }
+
+        try (SnapshotReader reader = new SnapshotReader(filename, 1)) {
+            reader.read(new Collector());
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package de.komoot.photon;
+
+import de.komoot.photon.nominatim.model.AddressType;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class UtilsTest {
+
+    @Test
+    public void testBuildClassificationString() {
+        assertEquals("tpfldguesthouseclsfldtourism", Utils.buildClassificationString("tourism", "guest_house"));
+        // second call is served from the cache
+        assertEquals("tpfldguesthouseclsfldtourism", Utils.buildClassificationString("tourism", "guest_house"));
+        assertEquals("tpfldfastfoodclsfldamenity", Utils.buildClassificationString("amenity", "Fast_Food"));
+
+        assertNull(Utils.buildClassificationString("place", "city"));
+        assertNull(Utils.buildClassificationString("highway", "residential"));
+        assertNull(Utils.buildClassificationString("amenity", "fast food"));
+        assertNull(Utils.buildClassificationString("amenity", "fast food"));
+    }
+
+    private static Map<String, String> names(String name, String nameDe) {
+        Map<String, String> names = new HashMap<>();
+        names.put("name", name);
+        if (nameDe != null) {
+            names.put("name:de", nameDe);
+        }
+        return names;
+    }
+
+    @Test
+    public void testWriteContext() throws IOException {
+        Set<Map<String, String>> contexts = new HashSet<>();
+        contexts.add(names("Munich", "München"));
+        contexts.add(names("Munich", null));
+        contexts.add(names("Bavaria", null));
+
+        XContentBuilder builder = XContentFactory.jsonBuilder().startObject();
+        Utils.writeContext(builder, contexts, new String[]{"de", "en"});
+        JSONObject context = new JSONObject(builder.endObject().string()).getJSONObject("context");
+
+        assertEquals(2, context.length());
+        String defaultNames = context.getString("default");
+        assertEquals(2, defaultNames.split(", ").length);
+        assertTrue(defaultNames.contains("Munich"));
+        assertTrue(defaultNames.contains("Bavaria"));
+        assertEquals("München", context.getString("de"));
+    }
+
+    @Test
+    public void testWriteEmptyContext() throws IOException {
+        XContentBuilder builder = XContentFactory.jsonBuilder().startObject();
+        Utils.writeContext(builder, new HashSet<>(), new String[]{"de"});
+
+        assertFalse(new JSONObject(builder.endObject().string()).has("context"));
+    }
+
+    private static PhotonDoc streetDoc(long placeId, Map<String, String> street, Map<String, String> city) {
+        PhotonDoc doc = new PhotonDoc(placeId, "N", placeId, "amenity", "cafe")
+                .names(names("Cafe " + placeId, null))
+                .parentPlaceId(1000);
+        doc.setAddressPartIfNew(AddressType.STREET, street);
+        doc.setAddressPartIfNew(AddressType.CITY, city);
+        doc.getContext().add(names("Bavaria", "Bayern"));
+        return doc;
+    }
+
+    @Test
+    public void testConvertWithAddressFragmentCache() throws IOException {
+        String[] languages = {"de", "en"};
+        String[] extraTags = {};
+        AddressFragmentCache fragments = new AddressFragmentCache(languages);
+        Map<String, String> street = names("Main Street", "Hauptstraße");
+        Map<String, String> city = names("Munich", "München");
+
+        for (long placeId = 1; placeId <= 2; ++placeId) {
+            PhotonDoc doc = streetDoc(placeId, street, city);
+            JSONObject expected = new JSONObject(Utils.convert(doc, languages, extraTags).string());
+            JSONObject cached = new JSONObject(Utils.convert(doc, extraTags, fragments));
+            assertEquals(expected.toString(2), cached.toString(2));
+        }
+
+        // A place with its own street must not get the cached address of its siblings.
+        Map<String, String> address = new HashMap<>();
+        address.put("street", "Side Street");
+        PhotonDoc doc = streetDoc(3, street, city).address(address);
+        JSONObject cached = new JSONObject(Utils.convert(doc, extraTags, fragments));
+        assertEquals("Side Street", cached.getJSONObject("street").getString("default"));
+        assertEquals("Main Street", street.get("name"));
+
+        JSONObject next = new JSONObject(Utils.convert(streetDoc(4, street, city), extraTags, fragments));
+        assertEquals("Main Street", next.getJSONObject("street").getString("default"));
+    }
+}
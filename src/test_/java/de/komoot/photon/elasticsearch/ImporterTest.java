@@ -1,15 +1,22 @@
 package de.komoot.photon.elasticsearch;
 
 import de.komoot.photon.ESBaseTester;
+import de.komoot.photon.HousenumberVariants;
+import de.komoot.photon.ImportMetrics;
 import de.komoot.photon.PhotonDoc;
 import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentType;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import static org.junit.Assert.*;
@@ -74,4 +81,104 @@ public class ImporterTest extends ESBaseTester {
 
         assertNull(response.getSource().get("extra"));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testAddHousenumberVariants() {
+        Importer instance = makeImporter();
+
+        PhotonDoc base = new PhotonDoc(1234, "W", 1000, "place", "house_number")
+                .names(Collections.singletonMap("name", "Terrace"));
+        instance.add(base, new HousenumberVariants() {
+            @Override
+            public int size() {
+                return 2;
+            }
+
+            @Override
+            public String getHousenumber(int index) {
+                return String.valueOf(index + 1);
+            }
+
+            @Override
+            public double getLon(int index) {
+                return 10.0 + index;
+            }
+
+            @Override
+            public double getLat(int index) {
+                return 50.0;
+            }
+        });
+        instance.finish();
+        refresh();
+
+        GetResponse response = getClient().prepareGet(PhotonIndex.NAME, PhotonIndex.TYPE, "1234.2").execute().actionGet();
+        assertTrue(response.isExists());
+
+        Map<String, Object> source = response.getSource();
+        assertEquals("2", source.get("housenumber"));
+        assertEquals("W", source.get("osm_type"));
+        assertEquals("Terrace", ((Map<String, Object>) source.get("name")).get("default"));
+
+        Map<String, Object> coordinate = (Map<String, Object>) source.get("coordinate");
+        assertEquals(11.0, (Double) coordinate.get("lon"), 0.00001);
+        assertEquals(50.0, (Double) coordinate.get("lat"), 0.00001);
+
+        assertFalse(getById(1234).isExists());
+    }
+
+    @Test
+    public void testAddDocsInBinaryFormats() {
+        Importer smileImporter = makeImporter();
+        smileImporter.setFormat(XContentType.SMILE);
+        smileImporter.add(new PhotonDoc(1234, "N", 1000, "place", "city")
+                .names(Collections.singletonMap("name", "Smile City")));
+        smileImporter.finish();
+
+        Importer cborImporter = makeImporter();
+        cborImporter.setFormat(XContentType.CBOR);
+        cborImporter.add(new PhotonDoc(1235, "N", 1001, "place", "city")
+                .names(Collections.singletonMap("name", "Cbor City")));
+        cborImporter.finish();
+        refresh();
+
+        Map<String, Object> source = getById(1234).getSource();
+        assertEquals("city", source.get("osm_value"));
+        assertEquals("Smile City", ((Map<String, Object>) source.get("name")).get("default"));
+
+        source = getById(1235).getSource();
+        assertEquals("city", source.get("osm_value"));
+        assertEquals("Cbor City", ((Map<String, Object>) source.get("name")).get("default"));
+    }
+
+    @Test
+    public void testFailedDocumentsAreCounted() {
+        Importer importer = makeImporter();
+        ImportMetrics metrics = new ImportMetrics();
+        importer.setMetrics(metrics);
+
+        importer.add(new PhotonDoc(1234, "N", 1000, "place", "city"));
+        importer.add("broken", new BytesArray("{\"coordinate\": \"nowhere\"}"), XContentType.JSON);
+        importer.add(new PhotonDoc(1235, "N", 1001, "place", "city"));
+        importer.finish();
+        refresh();
+
+        assertEquals(1, metrics.getFailedDocuments());
+        assertTrue(getById(1234).isExists());
+        assertTrue(getById(1235).isExists());
+    }
+
+    @Test
+    public void testRetryPolicy() {
+        List<TimeValue> delays = new ArrayList<>();
+        for (TimeValue delay : Importer.retryPolicy()) {
+            delays.add(delay);
+        }
+
+        assertEquals(10, delays.size());
+        assertEquals(100, delays.get(0).millis());
+        for (int i = 1; i < delays.size(); ++i) {
+            assertTrue(delays.get(i).millis() >= delays.get(i - 1).millis());
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package de.komoot.photon.elasticsearch;
+
+import com.google.common.collect.ImmutableMap;
+import de.komoot.photon.ESBaseTester;
+import de.komoot.photon.PhotonDoc;
+import org.elasticsearch.action.get.GetResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ReindexerTest extends ESBaseTester {
+
+    @Before
+    public void setUp() throws IOException {
+        setUpES("en", "de");
+    }
+
+    @Test
+    public void testRebuildKeepsOnlyConfiguredNames() {
+        Reindexer reindexer = new Reindexer(getClient(), PhotonIndex.NAME, null, new String[]{"en"}, new String[]{"wheelchair"});
+
+        Map<String, Object> unchanged = new HashMap<>();
+        unchanged.put("name", ImmutableMap.of("default", "Berlin", "en", "Berlin", "alt", "Spree-Athen"));
+        unchanged.put("extra", ImmutableMap.of("wheelchair", "yes"));
+        assertSame(unchanged, reindexer.rebuild(unchanged));
+
+        Map<String, Object> document = new HashMap<>();
+        document.put("name", ImmutableMap.of("default", "München", "en", "Munich", "de", "München"));
+        document.put("city", ImmutableMap.of("de", "München"));
+        document.put("extra", ImmutableMap.of("website", "muenchen.de"));
+        document.put("osm_id", 1);
+
+        Map<String, Object> rebuilt = reindexer.rebuild(document);
+        assertEquals(ImmutableMap.of("default", "München", "en", "Munich"), rebuilt.get("name"));
+        assertFalse(rebuilt.containsKey("city"));
+        assertFalse(rebuilt.containsKey("extra"));
+        assertEquals(1, rebuilt.get("osm_id"));
+        // The original document is not changed.
+        assertTrue(document.containsKey("city"));
+    }
+
+    @Test
+    public void testRebuildWithoutExtraTagsKeepsExtra() {
+        Reindexer reindexer = new Reindexer(getClient(), PhotonIndex.NAME, null, new String[]{"en"}, null);
+
+        Map<String, Object> document = new HashMap<>();
+        document.put("name", ImmutableMap.of("default", "Berlin", "en", "Berlin"));
+        document.put("extra", ImmutableMap.of("website", "berlin.de", "wheelchair", "yes"));
+        assertSame(document, reindexer.rebuild(document));
+    }
+
+    @Test
+    public void testReindexAndSwap() throws IOException {
+        Importer importer = makeImporterWithLanguages("en", "de");
+        for (int i = 1; i <= 20; ++i) {
+            importer.add(new PhotonDoc(i, "N", 100 + i, "place", "city")
+                    .names(ImmutableMap.of("name", "Stadt " + i, "name:en", "Town " + i, "name:de", "Stadt " + i)));
+        }
+        importer.finish();
+        new ImportCheckpoints(getClient()).save(ImmutableMap.of("placex", 10L));
+        refresh();
+
+        String indexName = PhotonIndex.NAME + "_test";
+        String[] languages = new String[]{"en"};
+        getServer().createIndex(indexName, languages, null);
+        new DatabaseProperties().setLanguages(languages).saveToDatabase(getClient(), indexName);
+        getServer().enableBulkLoadSettings(indexName);
+
+        Importer target = makeImporterWithLanguages(languages);
+        target.setIndexName(indexName);
+        Reindexer reindexer = new Reindexer(getClient(), PhotonIndex.NAME, target, languages, new String[0]);
+        reindexer.setSlices(2);
+        reindexer.setBatchSize(3);
+        assertEquals(20, reindexer.reindex());
+        assertFalse(getClient().prepareGet(indexName, PhotonIndex.TYPE, ImportCheckpoints.CHECKPOINT_DOCUMENT_ID)
+                .execute().actionGet().isExists());
+
+        getServer().restoreServingSettings(indexName, false);
+        getServer().swapIndex(indexName);
+        refresh();
+
+        assertArrayEquals(new String[]{indexName}, getServer().getPhotonIndices());
+
+        DatabaseProperties properties = new DatabaseProperties();
+        properties.loadFromDatabase(getClient());
+        assertArrayEquals(languages, properties.getLanguages());
+
+        for (int i = 1; i <= 20; ++i) {
+            GetResponse response = getById(i);
+            assertTrue(response.isExists());
+            Map<String, Object> names = (Map<String, Object>) response.getSource().get("name");
+            assertEquals("Town " + i, names.get("en"));
+            assertFalse(names.containsKey("de"));
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package de.komoot.photon.elasticsearch;
+
+import de.komoot.photon.ESBaseTester;
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static org.junit.Assert.*;
+
+public class ServerTest extends ESBaseTester {
+
+    @Before
+    public void setUp() throws IOException {
+        setUpES();
+    }
+
+    private Settings getIndexSettings() {
+        return getClient().admin().indices().prepareGetSettings(PhotonIndex.NAME).execute().actionGet()
+                .getIndexToSettings().get(PhotonIndex.NAME);
+    }
+
+    @Test
+    public void testBulkLoadSettingsLifecycle() {
+        getServer().enableBulkLoadSettings();
+
+        Settings settings = getIndexSettings();
+        assertEquals("-1", settings.get("index.refresh_interval"));
+        assertEquals("0", settings.get("index.number_of_replicas"));
+        assertEquals("async", settings.get("index.translog.durability"));
+
+        getServer().restoreServingSettings(false);
+
+        settings = getIndexSettings();
+        assertEquals("1s", settings.get("index.refresh_interval"));
+        assertEquals("1", settings.get("index.number_of_replicas"));
+        assertEquals("request", settings.get("index.translog.durability"));
+        assertNull(settings.get("index.blocks.write"));
+    }
+
+    @Test
+    public void testGenerationsAndRollback() throws IOException {
+        String[] languages = new String[]{"en"};
+        String[] generations = {PhotonIndex.NAME + "_1", PhotonIndex.NAME + "_2", PhotonIndex.NAME + "_3"};
+        // A newer index without checkpoint does not belong to an interrupted import and must not be resumed.
+        String stray = PhotonIndex.NAME + "_4";
+        try {
+            for (String indexName : generations) {
+                getServer().createGeneration(indexName, languages, null);
+            }
+            getServer().createGeneration(stray, languages, null);
+            assertNull(getServer().findUnfinishedIndex());
+
+            new ImportCheckpoints(getClient(), generations[2]).save(new HashMap<>());
+            assertEquals(generations[2], getServer().findUnfinishedIndex());
+
+            getServer().swapIndex(generations[0], 1);
+            getServer().swapIndex(generations[1], 1);
+            assertEquals(generations[2], getServer().findUnfinishedIndex());
+            getServer().swapIndex(generations[2], 1);
+
+            assertArrayEquals(new String[]{generations[2]}, getServer().getPhotonIndices());
+            assertEquals(Arrays.asList(generations[1]), getServer().getPreviousIndices());
+            assertFalse(getClient().admin().indices().prepareExists(generations[0]).execute().actionGet().isExists());
+            assertNull(getServer().findUnfinishedIndex());
+
+            getServer().rollback(0);
+
+            assertArrayEquals(new String[]{generations[1]}, getServer().getPhotonIndices());
+            assertEquals(Arrays.asList(generations[2]), getServer().getPreviousIndices());
+        } finally {
+            for (String indexName : Arrays.asList(generations[0], generations[1], generations[2], stray)) {
+                if (getClient().admin().indices().prepareExists(indexName).execute().actionGet().isExists()) {
+                    getClient().admin().indices().prepareDelete(indexName).execute().actionGet();
+                }
+            }
+        }
+    }
+}
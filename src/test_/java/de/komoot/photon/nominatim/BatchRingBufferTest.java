@@ -0,0 +1,70 @@
+package de.komoot.photon.nominatim;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class BatchRingBufferTest {
+
+    @Test
+    public void testCapacityIsPowerOfTwo() {
+        assertEquals(2, new BatchRingBuffer<Integer>(1).capacity());
+        assertEquals(8, new BatchRingBuffer<Integer>(8).capacity());
+        assertEquals(16, new BatchRingBuffer<Integer>(9).capacity());
+    }
+
+    @Test
+    public void testOfferAndPollInOrder() {
+        BatchRingBuffer<Integer> queue = new BatchRingBuffer<>(4);
+
+        assertNull(queue.poll());
+        for (int round = 0; round < 3; ++round) {
+            for (int i = 0; i < 4; ++i) {
+                assertTrue(queue.offer(i));
+            }
+            assertFalse(queue.offer(4));
+            assertEquals(4, queue.size());
+
+            for (int i = 0; i < 4; ++i) {
+                assertEquals(Integer.valueOf(i), queue.poll());
+            }
+            assertNull(queue.poll());
+            assertEquals(0, queue.size());
+        }
+    }
+
+    @Test
+    public void testConcurrentProducersAndConsumers() throws InterruptedException {
+        final int numThreads = 4;
+        final int perProducer = 100000;
+        BatchRingBuffer<Integer> queue = new BatchRingBuffer<>(8);
+        AtomicLong sum = new AtomicLong();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < numThreads; ++t) {
+            threads.add(new Thread(() -> {
+                for (int i = 1; i <= perProducer; ++i) {
+                    queue.put(i, WaitStrategy.YIELD);
+                }
+            }));
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < perProducer; ++i) {
+                    sum.addAndGet(queue.take(WaitStrategy.PARK));
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals((long) numThreads * perProducer * (perProducer + 1) / 2, sum.get());
+        assertNull(queue.poll());
+    }
+}
@@ -0,0 +1,132 @@
+package de.komoot.photon.nominatim;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Point;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class BinaryCopyReaderTest {
+
+    private static class CopyWriter {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+        CopyWriter() throws IOException {
+            out.write("PGCOPY\n\377\r\n\0".getBytes(StandardCharsets.ISO_8859_1));
+            out.writeInt(0);
+            out.writeInt(0);
+        }
+
+        CopyWriter row(int fields) throws IOException {
+            out.writeShort(fields);
+            return this;
+        }
+
+        CopyWriter field(byte[] data) throws IOException {
+            if (data == null) {
+                out.writeInt(-1);
+            } else {
+                out.writeInt(data.length);
+                out.write(data);
+            }
+            return this;
+        }
+
+        BinaryCopyReader finish() throws IOException {
+            out.writeShort(-1);
+            return new BinaryCopyReader(new ByteArrayInputStream(bytes.toByteArray()));
+        }
+    }
+
+    private static byte[] hstore(String... keyValues) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(keyValues.length / 2);
+        for (int i = 0; i < keyValues.length; i += 2) {
+            byte[] key = keyValues[i].getBytes(StandardCharsets.UTF_8);
+            out.writeInt(key.length);
+            out.write(key);
+            if (keyValues[i + 1] == null) {
+                out.writeInt(-1);
+            } else {
+                byte[] value = keyValues[i + 1].getBytes(StandardCharsets.UTF_8);
+                out.writeInt(value.length);
+                out.write(value);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] wkbPoint(double x, double y) {
+        return ByteBuffer.allocate(21).order(ByteOrder.LITTLE_ENDIAN)
+                .put((byte) 1).putInt(1).putDouble(x).putDouble(y).array();
+    }
+
+    private static byte[] wkbBox(double minx, double miny, double maxx, double maxy) {
+        ByteBuffer wkb = ByteBuffer.allocate(1 + 4 + 4 + 4 + 5 * 16).order(ByteOrder.BIG_ENDIAN)
+                .put((byte) 0).putInt(3).putInt(1).putInt(5);
+        wkb.putDouble(minx).putDouble(miny).putDouble(minx).putDouble(maxy).putDouble(maxx).putDouble(maxy)
+                .putDouble(maxx).putDouble(miny).putDouble(minx).putDouble(miny);
+        return wkb.array();
+    }
+
+    @Test
+    public void testDecodeRows() throws IOException {
+        BinaryCopyReader reader = new CopyWriter()
+                .row(6)
+                .field(ByteBuffer.allocate(8).putLong(123456789012L).array())
+                .field("Café".getBytes(StandardCharsets.UTF_8))
+                .field(hstore("name", "Spot", "name:de", "Fleck", "old_name", null))
+                .field(wkbPoint(10.5, -3.25))
+                .field(wkbBox(1, 2, 3, 4))
+                .field(ByteBuffer.allocate(8).putDouble(0.25).array())
+                .row(6)
+                .field(null).field(null).field(null).field(null).field(null).field(null)
+                .finish();
+
+        assertTrue(reader.next());
+        assertEquals(6, reader.getNumFields());
+        assertEquals(123456789012L, reader.getLong(0));
+        assertEquals("Café", reader.getString(1));
+
+        Map<String, String> names = reader.getHstore(2);
+        assertEquals(2, names.size());
+        assertEquals("Spot", names.get("name"));
+        assertEquals("Fleck", names.get("name:de"));
+
+        Point point = reader.getPoint(3);
+        assertEquals(10.5, point.getX(), 0.0000001);
+        assertEquals(-3.25, point.getY(), 0.0000001);
+
+        assertEquals(10.5, reader.getPointX(3), 0.0000001);
+        assertEquals(-3.25, reader.getPointY(3), 0.0000001);
+
+        assertEquals(new Envelope(1, 3, 2, 4), reader.getEnvelope(4));
+        double[] bounds = new double[4];
+        assertTrue(reader.getBounds(4, bounds));
+        assertArrayEquals(new double[]{1, 2, 3, 4}, bounds, 0.0000001);
+        assertEquals(0.25, reader.getDouble(5), 0.0000001);
+
+        assertTrue(reader.next());
+        assertTrue(reader.isNull(0));
+        assertEquals(0, reader.getLong(0));
+        assertNull(reader.getString(1));
+        assertTrue(reader.getHstore(2).isEmpty());
+        assertNull(reader.getPoint(3));
+        assertNull(reader.getEnvelope(4));
+        assertTrue(Double.isNaN(reader.getPointX(3)));
+        assertFalse(reader.getBounds(4, bounds));
+
+        assertFalse(reader.next());
+    }
+}
@@ -2,13 +2,16 @@ package de.komoot.photon.nominatim;
 
 import com.vividsolutions.jts.io.ParseException;
 import de.komoot.photon.AssertUtil;
+import de.komoot.photon.CheckpointStore;
 import de.komoot.photon.PhotonDoc;
 import de.komoot.photon.ReflectionTestUtil;
+import de.komoot.photon.Utils;
 import de.komoot.photon.nominatim.model.AddressType;
 import de.komoot.photon.nominatim.testdb.CollectingImporter;
 import de.komoot.photon.nominatim.testdb.H2DataAdapter;
 import de.komoot.photon.nominatim.testdb.OsmlineTestRow;
 import de.komoot.photon.nominatim.testdb.PlacexTestRow;
+import org.json.JSONObject;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -17,6 +20,11 @@ import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
 import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
 import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
 
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
 
 public class NominatimConnectorDBTest {
     private EmbeddedDatabase db;
@@ -262,4 +270,202 @@ public class NominatimConnectorDBTest {
 
         importer.get(parent);
     }
-}
\ No newline at end of file
+
+    /**
+     * Reading with multiple connections returns the same documents as a sequential read.
+     */
+    @Test
+    public void testParallelRead() throws ParseException {
+        PlacexTestRow street = PlacexTestRow.make_street("Main St").add(jdbc);
+        PlacexTestRow place = new PlacexTestRow("building", "yes").addr("housenumber", "3").parent(street).add(jdbc);
+        new PlacexTestRow("amenity", "cafe").name("Spot").id(place.getPlaceId() + 5000).add(jdbc);
+        new OsmlineTestRow().number(1, 11, "all").parent(street).geom("LINESTRING(0 0, 0 1)").add(jdbc);
+
+        connector.setReaderThreads(3);
+        connector.readEntireDatabase();
+
+        Assert.assertEquals(12, importer.size());
+        importer.assertContains(place, 3);
+        importer.get(street);
+    }
+
+    /**
+     * Houses of the same parent get the same address, independently of whether the
+     * address cache is used.
+     */
+    @Test
+    public void testAddressCache() {
+        for (long cacheSize : new long[]{0, 100}) {
+            jdbc.update("DELETE FROM placex");
+            jdbc.update("DELETE FROM place_addressline");
+            importer = new CollectingImporter();
+            connector.setImporter(importer);
+            connector.setAddressCacheSize(cacheSize);
+
+            PlacexTestRow parent = PlacexTestRow.make_street("Burg").add(jdbc);
+            parent.addAddresslines(jdbc,
+                    new PlacexTestRow("place", "city").name("Grand Junction").rankAddress(16).add(jdbc));
+            PlacexTestRow house1 = new PlacexTestRow("building", "yes").addr("housenumber", "1").parent(parent).add(jdbc);
+            PlacexTestRow house2 = new PlacexTestRow("building", "yes").addr("housenumber", "2").parent(parent).add(jdbc);
+
+            connector.readEntireDatabase();
+
+            Assert.assertEquals(4, importer.size());
+            for (PlacexTestRow house : new PlacexTestRow[]{house1, house2}) {
+                PhotonDoc doc = importer.get(house);
+                AssertUtil.assertAddressName("Burg", doc, AddressType.STREET);
+                AssertUtil.assertAddressName("Grand Junction", doc, AddressType.CITY);
+            }
+            AssertUtil.assertAddressName("Grand Junction", importer.get(parent), AddressType.CITY);
+        }
+    }
+
+    /**
+     * A resumed import skips everything before the checkpoint and removes the checkpoint at the end.
+     */
+    @Test
+    public void testResumeFromCheckpoint() throws ParseException {
+        PlacexTestRow done = new PlacexTestRow("amenity", "cafe").name("Done").add(jdbc);
+        PlacexTestRow todo = new PlacexTestRow("amenity", "cafe").name("Todo").id(done.getPlaceId() + 100).add(jdbc);
+        new OsmlineTestRow().number(1, 11, "all").geom("LINESTRING(0 0, 0 1)").add(jdbc);
+
+        Map<String, Long> saved = new HashMap<>();
+        saved.put("placex", done.getPlaceId() + 1);
+        saved.put("location_property_osmline", Long.MAX_VALUE);
+        connector.setCheckpointStore(new CheckpointStore() {
+            @Override
+            public Map<String, Long> load() {
+                return new HashMap<>(saved);
+            }
+
+            @Override
+            public void save(Map<String, Long> checkpoint) {
+                saved.clear();
+                saved.putAll(checkpoint);
+            }
+
+            @Override
+            public void clear() {
+                saved.clear();
+            }
+        });
+
+        connector.readEntireDatabase();
+
+        Assert.assertEquals(1, importer.size());
+        importer.assertContains(todo);
+        Assert.assertTrue(saved.isEmpty());
+    }
+
+    /**
+     * When documents failed, the checkpoint is kept, so that a resume imports them again.
+     */
+    @Test
+    public void testCheckpointKeptAfterFailedDocuments() throws ParseException {
+        new PlacexTestRow("amenity", "cafe").name("Spot").add(jdbc);
+        connector.setImporter(new CollectingImporter() {
+            @Override
+            public long getFailedDocuments() {
+                return 1;
+            }
+        });
+
+        Map<String, Long> saved = new HashMap<>();
+        connector.setCheckpointStore(new CheckpointStore() {
+            @Override
+            public Map<String, Long> load() {
+                return new HashMap<>(saved);
+            }
+
+            @Override
+            public void save(Map<String, Long> checkpoint) {
+                saved.clear();
+                saved.putAll(checkpoint);
+            }
+
+            @Override
+            public void clear() {
+                Assert.fail("checkpoint must not be removed after failed documents");
+            }
+        });
+
+        connector.readEntireDatabase();
+    }
+
+    /**
+     * Places that are not indexed are dropped before their address is looked up.
+     */
+    @Test
+    public void testSkipUselessBeforeAddressLookup() throws ParseException {
+        PlacexTestRow street = PlacexTestRow.make_street("Main St").add(jdbc);
+        new PlacexTestRow("building", "yes").parent(street).add(jdbc);
+        new PlacexTestRow("place", "houses").name("Houses").parent(street).add(jdbc);
+        PlacexTestRow house = new PlacexTestRow("building", "yes").addr("housenumber", "4").parent(street).add(jdbc);
+
+        connector.readEntireDatabase();
+
+        Assert.assertEquals(2, importer.size());
+        importer.assertContains(house, 4);
+        Assert.assertTrue(connector.getAddressStatistics().contains("2 places skipped before address lookup (2 lookups saved)"));
+    }
+
+    /**
+     * The SQL filter must keep place=houses objects with a house number, like the filter
+     * before the address lookup does.
+     */
+    @Test
+    public void testFilterInSqlKeepsHousesWithHousenumber() throws ParseException {
+        connector.setFilterInSql(true);
+
+        PlacexTestRow street = PlacexTestRow.make_street("Main St").add(jdbc);
+        new PlacexTestRow("building", "yes").parent(street).add(jdbc);
+        new PlacexTestRow("place", "houses").name("Houses").parent(street).add(jdbc);
+        PlacexTestRow houses = new PlacexTestRow("place", "houses").addr("housenumber", "4").parent(street).add(jdbc);
+
+        connector.readEntireDatabase();
+
+        Assert.assertEquals(2, importer.size());
+        importer.assertContains(street);
+        importer.assertContains(houses, 4);
+        Assert.assertTrue(connector.getAddressStatistics().contains(" 0 places skipped before address lookup"));
+    }
+
+    /**
+     * Slicing names and extratags in the SQL query must not change the indexed documents.
+     */
+    @Test
+    public void testProjectionKeepsDocuments() throws IOException {
+        String[] languages = {"en", "de"};
+        // Default of -extra-tags.
+        String[] extraTags = "".split(",");
+
+        PlacexTestRow city = new PlacexTestRow("place", "city").name("Grand Junction")
+                .name("name:de", "Grosse Kreuzung").name("name:fr", "Grand Carrefour").rankAddress(16).add(jdbc);
+        PlacexTestRow street = PlacexTestRow.make_street("Burg").name("name:it", "Borgo").add(jdbc);
+        street.addAddresslines(jdbc, city);
+        PlacexTestRow square = new PlacexTestRow("highway", "pedestrian").name("Market")
+                .extratag("place", "square").extratag("wikidata", "Q1").parent(street).add(jdbc);
+        square.addAddresslines(jdbc, street, city);
+        PlacexTestRow suburb = new PlacexTestRow("boundary", "administrative").name("name:it", "Borgo Nuovo")
+                .extratag("linked_place", "suburb").rankAddress(20).add(jdbc);
+        suburb.addAddresslines(jdbc, city);
+
+        connector.readEntireDatabase();
+
+        NominatimConnector projected = new NominatimConnector(null, 0, null, null, null, new H2DataAdapter());
+        CollectingImporter projectedImporter = new CollectingImporter();
+        projected.setImporter(projectedImporter);
+        ReflectionTestUtil.setFieldValue(projected, "template", jdbc);
+        projected.setProjection(languages, extraTags);
+        projected.readEntireDatabase();
+
+        Assert.assertEquals(4, projectedImporter.size());
+        Assert.assertEquals("square", projectedImporter.get(square).getTagValue());
+        Assert.assertEquals("suburb", projectedImporter.get(suburb).getTagValue());
+        for (PlacexTestRow row : Arrays.asList(city, street, square, suburb)) {
+            JSONObject expected = new JSONObject(Utils.convert(importer.get(row), languages, extraTags).string());
+            JSONObject actual = new JSONObject(Utils.convert(projectedImporter.get(row), languages, extraTags).string());
+            Assert.assertTrue(actual.toString(), expected.similar(actual));
+        }
+    }
+}
@@ -1,8 +1,13 @@
 package de.komoot.photon.nominatim;
 
+import de.komoot.photon.nominatim.model.AddressRow;
+import de.komoot.photon.nominatim.model.AddressType;
 import org.junit.Test;
 
+import java.util.List;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class NominatimConnectorTest {
 
@@ -12,4 +17,19 @@ public class NominatimConnectorTest {
         assertEquals("'uk'", NominatimConnector.convertCountryCode("uk".split(",")));
         assertEquals("'uk','de'", NominatimConnector.convertCountryCode("uk,de".split(",")));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testParseAddressRows() {
+        assertTrue(NominatimConnector.parseAddressRows(null).isEmpty());
+
+        List<AddressRow> rows = NominatimConnector.parseAddressRows(
+                "[[{\"name\": \"Main St\", \"name:de\": \"Hauptstr\"}, \"highway\", \"residential\", 26],"
+                + " [null, \"boundary\", \"postal_code\", 21]]");
+
+        assertEquals(2, rows.size());
+        assertEquals("Hauptstr", rows.get(0).getName().get("name:de"));
+        assertEquals(AddressType.STREET, rows.get(0).getAddressType());
+        assertTrue(rows.get(1).getName().isEmpty());
+        assertEquals("postal_code", rows.get(1).getOsmValue());
+    }
+}
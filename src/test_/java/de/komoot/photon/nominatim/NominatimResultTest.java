@@ -142,4 +142,49 @@ public class NominatimResultTest {
         assertDocWithHousenumbers(Arrays.asList("2", "101", "102", "103", "104", "105"), res.getDocsWithHousenumber());
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testAddHouseNumbersFromInterpolationPositions() throws ParseException {
+        NominatimResult res = new NominatimResult(simpleDoc);
+
+        WKTReader reader = new WKTReader();
+
+        res.addHouseNumbersFromInterpolation(10, 14, 2,
+                reader.read("LINESTRING(0.0 0.0 ,0.0 0.4)"));
+        res.addHousenumbersFromString("1");
+
+        assertEquals(3, res.getNumDocuments());
+        assertTrue(res.isUsefulForIndex());
+
+        List<PhotonDoc> docs = res.getDocsWithHousenumber();
+        assertDocWithHousenumbers(Arrays.asList("1", "11", "13"), docs);
+        for (PhotonDoc doc : docs) {
+            if ("11".equals(doc.getHouseNumber())) {
+                assertEquals(0.1, doc.getCentroid().getY(), 0.0000001);
+            } else if ("13".equals(doc.getHouseNumber())) {
+                assertEquals(0.3, doc.getCentroid().getY(), 0.0000001);
+            }
+        }
+    }
+
+    @Test
+    public void testInterpolationLines() throws ParseException {
+        PhotonDoc doc = new PhotonDoc(10000, "W", 123, "place", "house_number");
+        NominatimResult res = new NominatimResult(doc);
+        res.setInterpolationLines(true);
+
+        WKTReader reader = new WKTReader();
+        res.addHouseNumbersFromInterpolation(1, 3001, "odd",
+                reader.read("LINESTRING(0.0 0.0 ,0.0 0.1)"));
+
+        assertTrue(res.isUsefulForIndex());
+        assertEquals(1, res.getNumDocuments());
+
+        List<PhotonDoc> docs = res.getDocsWithHousenumber();
+        assertEquals(1, docs.size());
+        assertNull(docs.get(0).getHouseNumber());
+        assertEquals(3, docs.get(0).getInterpolation().getStart());
+        assertEquals(2999, docs.get(0).getInterpolation().getEnd());
+        assertEquals(2, docs.get(0).getInterpolation().getStep());
+        assertEquals(0.05, docs.get(0).getCentroid().getY(), 0.0000001);
+    }
+}
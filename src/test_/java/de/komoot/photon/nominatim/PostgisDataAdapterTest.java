@@ -0,0 +1,35 @@
+package de.komoot.photon.nominatim;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class PostgisDataAdapterTest {
+
+    @Test
+    public void testSqlArray() {
+        assertEquals("ARRAY['name','name:en','it''s']::text[]",
+                PostgisDataAdapter.sqlArray(Arrays.asList("name", "name:en", "it's")));
+    }
+
+    @Test
+    public void testSliceSql() {
+        PostgisDataAdapter adapter = new PostgisDataAdapter();
+
+        assertEquals("slice(extratags, ARRAY['place']::text[])",
+                adapter.sliceSql("extratags", Arrays.asList("place"), false));
+        assertEquals("coalesce(nullif(slice(name, ARRAY['name']::text[]), ''::hstore), name)",
+                adapter.sliceSql("name", Arrays.asList("name"), true));
+    }
+
+    @Test
+    public void testKeyConditions() {
+        PostgisDataAdapter adapter = new PostgisDataAdapter();
+
+        assertEquals("(name IS NOT NULL AND name != ''::hstore)", adapter.notEmptySql("name"));
+        assertEquals("exists_any(address, ARRAY['housenumber','streetnumber']::text[])",
+                adapter.hasAnyKeySql("address", Arrays.asList("housenumber", "streetnumber")));
+    }
+}
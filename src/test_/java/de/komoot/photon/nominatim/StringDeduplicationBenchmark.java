@@ -0,0 +1,78 @@
+package de.komoot.photon.nominatim;
+
+import de.komoot.photon.PhotonDoc;
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measures the heap used per in-flight document with and without string deduplication.
+ *
+ * The documents are built from synthetic rows in the same way as the import does it,
+ * with every string freshly allocated like the JDBC driver returns it. Run with
+ * a fixed heap, e.g. <code>-Xmx2g</code>, and optionally the number of documents as argument.
+ */
+@Slf4j
+public class StringDeduplicationBenchmark {
+    private static final String[][] TAGS = {{"highway", "residential"}, {"building", "yes"}, {"amenity", "restaurant"},
+                                            {"shop", "bakery"}, {"place", "house"}};
+
+    private static String copy(String str) {
+        return new String(str.toCharArray());
+    }
+
+    private static Map<String, String> map(String... keyValues) {
+        Map<String, String> map = new HashMap<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            map.put(copy(keyValues[i]), copy(keyValues[i + 1]));
+        }
+        return map;
+    }
+
+    private static PhotonDoc buildDoc(StringDeduplicator strings, int i) {
+        String[] tag = TAGS[i % TAGS.length];
+        return new PhotonDoc(i, strings.string(copy("N")), i, strings.string(copy(tag[0])), strings.string(copy(tag[1])))
+                .names(strings.keys(map("name", "Place " + i, "name:de", "Ort " + i, "name:en", "Place " + i)))
+                .extraTags(strings.map(map("wheelchair", "yes", "opening_hours", "Mo-Fr 08:00-18:00")))
+                .postcode(strings.string(copy(String.valueOf(10000 + i % 300))))
+                .address(strings.map(map("street", "Street " + i % 500, "city", "City " + i % 50)));
+    }
+
+    private static long usedHeap(MemoryMXBean memory) {
+        for (int i = 0; i < 3; ++i) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    private static void measure(boolean deduplicate, int numDocs) {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        StringDeduplicator strings = new StringDeduplicator(deduplicate);
+
+        long before = usedHeap(memory);
+        List<PhotonDoc> inFlight = new ArrayList<>(numDocs);
+        for (int i = 0; i < numDocs; ++i) {
+            inFlight.add(buildDoc(strings, i));
+        }
+        long after = usedHeap(memory);
+
+        log.info(String.format("deduplicate=%s: %d documents, %.1f bytes per document",
+                deduplicate, inFlight.size(), (after - before) / (double) numDocs));
+    }
+
+    public static void main(String[] args) {
+        int numDocs = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+
+        // warm up
+        measure(false, numDocs / 10);
+        measure(true, numDocs / 10);
+
+        measure(false, numDocs);
+        measure(true, numDocs);
+    }
+}
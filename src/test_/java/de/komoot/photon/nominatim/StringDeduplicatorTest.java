@@ -0,0 +1,58 @@
+package de.komoot.photon.nominatim;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class StringDeduplicatorTest {
+
+    private static String copy(String str) {
+        return new String(str.toCharArray());
+    }
+
+    private static Map<String, String> map(String key, String value) {
+        Map<String, String> map = new HashMap<>();
+        map.put(copy(key), copy(value));
+        return map;
+    }
+
+    @Test
+    public void testString() {
+        StringDeduplicator strings = new StringDeduplicator(true);
+
+        String first = strings.string(copy("highway"));
+        assertSame(first, strings.string(copy("highway")));
+        assertNull(strings.string(null));
+    }
+
+    @Test
+    public void testMaps() {
+        StringDeduplicator strings = new StringDeduplicator(true);
+
+        Map<String, String> first = strings.map(map("city", "Berlin"));
+        Map<String, String> second = strings.map(map("city", "Berlin"));
+        assertEquals(first, second);
+        assertSame(first.keySet().iterator().next(), second.keySet().iterator().next());
+        assertSame(first.get("city"), second.get("city"));
+
+        Map<String, String> names1 = strings.keys(map("name:de", "Spree"));
+        Map<String, String> names2 = strings.keys(map("name:de", "Spree"));
+        assertSame(names1.keySet().iterator().next(), names2.keySet().iterator().next());
+        assertNotSame(names1.get("name:de"), names2.get("name:de"));
+    }
+
+    @Test
+    public void testDisabled() {
+        StringDeduplicator strings = new StringDeduplicator(false);
+
+        Map<String, String> map = map("city", "Berlin");
+        assertSame(map, strings.map(map));
+        assertSame(map, strings.keys(map));
+
+        String str = copy("highway");
+        assertSame(str, strings.string(str));
+    }
+}
@@ -15,4 +15,21 @@ public class AddressTypeTest {
             assertNotNull(AddressType.fromRank(i));
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * The rank lookup must give the same result as checking the types in order.
+     */
+    @Test
+    public void testFromRankMatchesCoversRank() {
+        for (int i = -1; i <= 32; ++i) {
+            AddressType expected = null;
+            for (AddressType a : AddressType.values()) {
+                if (a.coversRank(i)) {
+                    expected = a;
+                    break;
+                }
+            }
+            assertEquals(expected, AddressType.fromRank(i));
+        }
+    }
+}
@@ -11,6 +11,7 @@ import javax.annotation.Nullable;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class H2DataAdapter implements DBDataAdapter {
@@ -48,4 +49,23 @@ public class H2DataAdapter implements DBDataAdapter {
     public boolean hasColumn(JdbcTemplate template, String table, String column) {
         return false;
     }
+
+    @Override
+    public String sliceSql(String column, List<String> keys, boolean keepAllIfEmpty) {
+        return "slice(" + column + ", " + keyList(keys) + ", " + keepAllIfEmpty + ")";
+    }
+
+    @Override
+    public String notEmptySql(String column) {
+        return "has_any_key(" + column + ", '')";
+    }
+
+    @Override
+    public String hasAnyKeySql(String column, List<String> keys) {
+        return "has_any_key(" + column + ", " + keyList(keys) + ")";
+    }
+
+    private static String keyList(List<String> keys) {
+        return "'" + String.join(",", keys).replace("'", "''") + "'";
+    }
 }
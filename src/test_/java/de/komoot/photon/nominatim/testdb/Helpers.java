@@ -1,6 +1,7 @@
 package de.komoot.photon.nominatim.testdb;
 
 import com.vividsolutions.jts.geom.Geometry;
+import org.json.JSONObject;
 import org.springframework.lang.Nullable;
 
 import java.sql.ResultSet;
@@ -20,6 +21,44 @@ public class Helpers {
         return geom.getEnvelope();
     }
 
+    /**
+     * Emulates hstore's slice() for JSON columns. The keys are given as a comma-separated list.
+     */
+    public static String slice(String json, String keys, boolean keepAllIfEmpty) {
+        if (json == null)
+            return null;
+
+        JSONObject in = new JSONObject(json);
+        JSONObject out = new JSONObject();
+        for (String key : keys.split(",")) {
+            if (in.has(key)) {
+                out.put(key, in.get(key));
+            }
+        }
+
+        return (keepAllIfEmpty && out.length() == 0) ? json : out.toString();
+    }
+
+    /**
+     * Checks if a JSON column has one of the comma-separated keys. With an empty
+     * key list, checks if it has any key at all.
+     */
+    public static boolean hasAnyKey(String json, String keys) {
+        if (json == null)
+            return false;
+
+        JSONObject obj = new JSONObject(json);
+        if (keys.isEmpty())
+            return obj.length() > 0;
+
+        for (String key : keys.split(",")) {
+            if (obj.has(key))
+                return true;
+        }
+
+        return false;
+    }
+
     @Nullable
     public static <T extends Geometry> T extractGeometry(ResultSet rs, String columnName) throws SQLException {
         return (T) rs.getObject(columnName);
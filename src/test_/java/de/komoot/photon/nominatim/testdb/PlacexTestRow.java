@@ -23,6 +23,7 @@ public class PlacexTestRow {
     private String value;
     private Map<String, String> names = new HashMap<>();
     private Map<String, String> address = new HashMap<>();
+    private Map<String, String> extratags = new HashMap<>();
     private Integer rankAddress = 30;
     private Integer rankSearch = 30;
     private String centroid;
@@ -87,6 +88,11 @@ public class PlacexTestRow {
         return this;
     }
 
+    public PlacexTestRow extratag(String key, String value) {
+        extratags.put(key, value);
+        return this;
+    }
+
     public PlacexTestRow country(String countryCode) {
         this.countryCode = countryCode;
         return this;
@@ -114,10 +120,10 @@ public class PlacexTestRow {
 
     public PlacexTestRow add(JdbcTemplate jdbc) {
         jdbc.update("INSERT INTO placex (place_id, parent_place_id, osm_type, osm_id, class, type, rank_search, rank_address,"
-                        + " centroid, name, country_code, importance, address)"
-                        + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ? FORMAT JSON, ?, ?, ? FORMAT JSON)",
+                        + " centroid, name, country_code, importance, address, extratags)"
+                        + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ? FORMAT JSON, ?, ?, ? FORMAT JSON, ? FORMAT JSON)",
                 placeId, parentPlaceId, osmType, osmId, key, value, rankSearch, rankAddress, centroid,
-                asJson(names), countryCode, importance, asJson(address));
+                asJson(names), countryCode, importance, asJson(address), asJson(extratags));
 
         return this;
     }
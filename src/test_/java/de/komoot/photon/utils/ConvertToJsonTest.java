@@ -1,12 +1,14 @@
 package de.komoot.photon.utils;
 
 import de.komoot.photon.ESBaseTester;
+import de.komoot.photon.InterpolationLine;
 import de.komoot.photon.PhotonDoc;
 import de.komoot.photon.elasticsearch.DatabaseProperties;
 import de.komoot.photon.elasticsearch.Importer;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.search.SearchType;
 import org.elasticsearch.index.query.QueryBuilders;
+import org.json.JSONArray;
 import org.json.JSONObject;
 import org.junit.After;
 import org.junit.Test;
@@ -16,6 +18,7 @@ import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.OptionalLong;
 
 public class ConvertToJsonTest extends ESBaseTester {
 
@@ -60,4 +63,21 @@ public class ConvertToJsonTest extends ESBaseTester {
 
         assertNull(json.get(0).getJSONObject("properties").optJSONObject("extra"));
     }
+
+    @Test
+    public void testConvertInterpolationLine() throws IOException {
+        PhotonDoc doc = new PhotonDoc(1234, "W", 1000, "place", "house_number")
+                .interpolation(new InterpolationLine(10, 20, 12, 18, 2, new double[]{1.0, 2.0, 1.0, 3.0}));
+        SearchResponse response = databaseFromDoc(doc);
+
+        assertTrue(new ConvertToJson("de").convert(response, false).isEmpty());
+
+        List<JSONObject> json = new ConvertToJson("de", line -> OptionalLong.of(15)).convert(response, false);
+
+        assertEquals(1, json.size());
+        assertEquals("15", json.get(0).getJSONObject("properties").getString("housenumber"));
+        JSONArray coordinates = json.get(0).getJSONObject("geometry").getJSONArray("coordinates");
+        assertEquals(1.0, coordinates.getDouble(0), 0.0000001);
+        assertEquals(2.5, coordinates.getDouble(1), 0.0000001);
+    }
 }
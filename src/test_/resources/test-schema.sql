@@ -53,6 +53,8 @@ CREATE TABLE location_property_osmline (
 
 
 CREATE ALIAS ST_Envelope FOR "de.komoot.photon.nominatim.testdb.Helpers.envelope";
+CREATE ALIAS slice FOR "de.komoot.photon.nominatim.testdb.Helpers.slice";
+CREATE ALIAS has_any_key FOR "de.komoot.photon.nominatim.testdb.Helpers.hasAnyKey";
 
 CREATE TABLE country_name (
     country_code character varying(2),